@@ -0,0 +1,221 @@
+package com.chibao.edu.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * An upload sent as numbered, fixed-size chunks, in any order and over as many requests as it
+ * takes.
+ * <p>
+ * Each chunk is written straight to its offset in the target file with positional
+ * {@link FileChannel} writes, so the finished file needs no assembly step. A state file next to
+ * the target holds the total size, the chunk size and one byte per chunk that is set only after
+ * the chunk's SHA-256 matched and its bytes were forced to disk. That file survives restarts, so
+ * a client can ask which chunks are missing and resume; it is deleted by {@link #finish()}.
+ * <p>
+ * Different chunks may be written concurrently. A chunk's byte range is locked while it is
+ * written, so two copies of the same chunk never interleave: another process waits for the lock,
+ * and a second write from this JVM fails with {@link IllegalStateException}.
+ */
+public final class ChunkedUpload {
+    /** Default of {@code import.max-upload-size}, in every module that takes chunked uploads. */
+    public static final String DEFAULT_MAX_UPLOAD_SIZE = "2GB";
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_CHUNKS = 1 << 20;
+    private static final int MAGIC = 0x43484e4b; // "CHNK"
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path target;
+    private final Path state;
+    private final long size;
+    private final int chunkSize;
+
+    private ChunkedUpload(Path target, long size, int chunkSize) {
+        this.target = target;
+        this.state = statePath(target);
+        this.size = size;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Starts an upload of {@code size} bytes into {@code target}, which must not exist yet. A size
+     * above {@code maxSize} is refused before anything is written.
+     */
+    public static ChunkedUpload create(Path target, long size, int chunkSize, long maxSize) throws IOException {
+        if (size <= 0) throw new IllegalArgumentException("size must be positive");
+        if (size > maxSize) throw new IllegalArgumentException("size must not exceed " + maxSize + " bytes");
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be between " + MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE);
+        }
+        ChunkedUpload upload = new ChunkedUpload(target, size, chunkSize);
+        if (upload.chunkCount() > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Too many chunks, use a larger chunkSize");
+        }
+
+        Files.createDirectories(target.getParent());
+        Files.createFile(target);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(upload.state, StandardOpenOption.CREATE_NEW))) {
+            out.writeInt(MAGIC);
+            out.writeLong(size);
+            out.writeInt(chunkSize);
+            out.write(new byte[upload.chunkCount()]);
+        }
+        return upload;
+    }
+
+    /** The upload in progress into {@code target}. */
+    public static ChunkedUpload open(Path target) throws IOException {
+        Path state = statePath(target);
+        if (!Files.exists(state)) throw new IllegalStateException("No upload in progress for " + target.getFileName());
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(state))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an upload state file: " + state);
+            return new ChunkedUpload(target, in.readLong(), in.readInt());
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int chunkCount() {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    /** Every chunk is {@link #getChunkSize()} bytes except the last, which holds the remainder. */
+    public long chunkLength(int index) {
+        if (index < 0 || index >= chunkCount()) {
+            throw new IllegalArgumentException("Chunk index must be between 0 and " + (chunkCount() - 1));
+        }
+        return Math.min(chunkSize, size - (long) index * chunkSize);
+    }
+
+    /**
+     * Writes chunk {@code index} from {@code body} at its offset and records it once the bytes
+     * match {@code sha256}. The chunk counts as missing while it is written, so a rejected or
+     * interrupted write, which may have overwritten part of an earlier copy, is simply sent again.
+     */
+    public void writeChunk(int index, InputStream body, String sha256) throws IOException {
+        long length = chunkLength(index);
+        long offset = (long) index * chunkSize;
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE);
+             FileLock ignored = lockChunk(channel, index, offset, length)) {
+            mark(index, false);
+            int n;
+            while ((n = body.read(buffer)) >= 0) {
+                if (written + n > length) {
+                    throw new IllegalArgumentException("Chunk " + index + " is longer than " + length + " bytes");
+                }
+                digest.update(buffer, 0, n);
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                while (bytes.hasRemaining()) {
+                    written += channel.write(bytes, offset + written);
+                }
+            }
+            if (written != length) {
+                throw new IllegalArgumentException("Chunk " + index + " has " + written + " bytes, expected " + length);
+            }
+            if (!HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(sha256)) {
+                throw new IllegalArgumentException("Checksum mismatch for chunk " + index);
+            }
+            // The chunk is on disk before it is marked received, and marked before the lock goes
+            channel.force(false);
+            mark(index, true);
+        }
+    }
+
+    /** Indexes of the chunks not received yet, in order. */
+    public List<Integer> missingChunks() throws IOException {
+        byte[] received = new byte[chunkCount()];
+        try (FileChannel channel = FileChannel.open(state, StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.wrap(received);
+            while (bytes.hasRemaining() && channel.read(bytes, HEADER_SIZE + bytes.position()) >= 0) {
+                // positional reads until the bitmap is full
+            }
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < received.length; i++) {
+            if (received[i] == 0) missing.add(i);
+        }
+        return missing;
+    }
+
+    /**
+     * Checks that every chunk arrived; the target is then the finished upload. Chunks arrive in any
+     * order, so the whole-file hash takes one read of the file here. The state file is kept until
+     * {@link #finish()}, so this can be called again if what follows it fails.
+     * @return the hex SHA-256 of the upload
+     */
+    public String complete() throws IOException {
+        List<Integer> missing = missingChunks();
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException(missing.size() + " chunk(s) missing, first is " + missing.get(0));
+        }
+
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                digest.update(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Drops the state file once the completed upload has been taken over. */
+    public void finish() throws IOException {
+        Files.deleteIfExists(state);
+    }
+
+    private static FileLock lockChunk(FileChannel channel, int index, long offset, long length) throws IOException {
+        try {
+            return channel.lock(offset, length, false);
+        } catch (OverlappingFileLockException e) {
+            throw new IllegalStateException("Chunk " + index + " is already being written", e);
+        }
+    }
+
+    private void mark(int index, boolean received) throws IOException {
+        try (FileChannel channel = FileChannel.open(state, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (received ? 1 : 0)}), HEADER_SIZE + index);
+            channel.force(false);
+        }
+    }
+
+    private static Path statePath(Path target) {
+        return target.resolveSibling(target.getFileName() + ".chunks");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.chibao.edu.common;
+
+import jakarta.validation.Constraint;
+import jakarta.validation.groups.Default;
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Past;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Field constraints of a bean class compiled into a flat array of checks.
+ * <p>
+ * Each supported Jakarta constraint ({@code @NotNull}, {@code @NotBlank}, {@code @Size} on strings,
+ * {@code @Pattern}, {@code @Email}, {@code @Past} on {@link LocalDate}) becomes a getter made with
+ * {@link LambdaMetafactory} plus a predicate, resolved once per class. Validating a bean walks the
+ * array, and nothing is allocated unless a check fails. The semantics are Hibernate Validator's:
+ * null passes everything except {@code @NotNull}/{@code @NotBlank}. The one exception is
+ * {@code @Email}: it is checked against the address pattern the CSV and Excel importers use, which
+ * is stricter than HV's, so an address whose domain has no dot fails here but not in the Validator.
+ * <p>
+ * A class with anything this does not cover gets no plan, and callers keep using the
+ * {@link jakarta.validation.Validator}. That includes other constraints, groups, class-level
+ * constraints, and messages that need interpolation.
+ */
+@Slf4j
+public final class CompiledValidator<T> {
+
+    private static final java.util.regex.Pattern EMAIL = java.util.regex.Pattern.compile(
+            "^[A-Z0-9._%+-]+@[A-Z0-9.-]+\\.[A-Z]{2,}$", java.util.regex.Pattern.CASE_INSENSITIVE);
+
+    private static final ClassValue<CompiledValidator<?>> PLANS = new ClassValue<>() {
+        @Override
+        protected CompiledValidator<?> computeValue(Class<?> type) {
+            return compile(type);
+        }
+    };
+
+    private final Check[] checks;
+
+    private CompiledValidator(Check[] checks) {
+        this.checks = checks;
+    }
+
+    /** @return the cached plan for {@code type}, or {@code null} when it has to go through the Validator */
+    @SuppressWarnings("unchecked")
+    public static <T> CompiledValidator<T> forType(Class<T> type) {
+        return (CompiledValidator<T>) PLANS.get(type);
+    }
+
+    /** @return the index of the first failing check at or after {@code from}, or -1 if there is none */
+    public int nextViolation(T bean, int from) {
+        for (int i = from; i < checks.length; i++) {
+            Check check = checks[i];
+            if (!check.valid().test(check.getter().apply(bean))) return i;
+        }
+        return -1;
+    }
+
+    public String field(int check) {
+        return checks[check].field();
+    }
+
+    public String message(int check) {
+        return checks[check].message();
+    }
+
+    public Object invalidValue(T bean, int check) {
+        return checks[check].getter().apply(bean);
+    }
+
+    private static CompiledValidator<?> compile(Class<?> type) {
+        try {
+            for (Annotation annotation : type.getDeclaredAnnotations()) {
+                if (isConstraint(annotation)) return null;
+            }
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            List<Check> checks = new ArrayList<>();
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+
+                    Function<Object, Object> getter = null;
+                    for (Annotation annotation : field.getDeclaredAnnotations()) {
+                        if (!isConstraint(annotation) && !isConstraintList(annotation)) continue;
+
+                        Predicate<Object> valid = predicate(annotation, field.getType());
+                        String message = literalMessage(annotation);
+                        if (valid == null || message == null || !defaultGroupOnly(annotation)) return null;
+
+                        if (getter == null) getter = getter(lookup, type, field);
+                        checks.add(new Check(field.getName(), message, getter, valid));
+                    }
+                }
+            }
+            return new CompiledValidator<>(checks.toArray(Check[]::new));
+        } catch (Throwable e) {
+            log.debug("No compiled validation plan for {}, using the Validator: {}", type.getName(), e.toString());
+            return null;
+        }
+    }
+
+    private static boolean isConstraint(Annotation annotation) {
+        return annotation.annotationType().isAnnotationPresent(Constraint.class);
+    }
+
+    private static boolean isConstraintList(Annotation annotation) {
+        return annotation.annotationType().getName().startsWith("jakarta.validation.constraints.")
+                && annotation.annotationType().getSimpleName().equals("List");
+    }
+
+    private static Predicate<Object> predicate(Annotation annotation, Class<?> fieldType) {
+        if (annotation instanceof NotNull) {
+            return v -> v != null;
+        }
+        if (annotation instanceof NotBlank && CharSequence.class.isAssignableFrom(fieldType)) {
+            return v -> v != null && !v.toString().trim().isEmpty();
+        }
+        if (annotation instanceof Size size && CharSequence.class.isAssignableFrom(fieldType)) {
+            int min = size.min();
+            int max = size.max();
+            if (min < 0 || max < min) return null;
+            return v -> v == null || (((CharSequence) v).length() >= min && ((CharSequence) v).length() <= max);
+        }
+        if (annotation instanceof Pattern pattern && CharSequence.class.isAssignableFrom(fieldType)) {
+            java.util.regex.Pattern compiled = compile(pattern.regexp(), pattern.flags());
+            return v -> v == null || compiled.matcher((CharSequence) v).matches();
+        }
+        if (annotation instanceof Email email && CharSequence.class.isAssignableFrom(fieldType)) {
+            // Like HV, an empty value passes and regexp() only narrows the address check further
+            java.util.regex.Pattern extra = ".*".equals(email.regexp()) ? null : compile(email.regexp(), email.flags());
+            return v -> v == null || ((CharSequence) v).isEmpty()
+                    || (EMAIL.matcher((CharSequence) v).matches()
+                    && (extra == null || extra.matcher((CharSequence) v).matches()));
+        }
+        if (annotation instanceof Past && fieldType == LocalDate.class) {
+            Today today = new Today();
+            return v -> v == null || ((LocalDate) v).isBefore(today.get());
+        }
+        return null;
+    }
+
+    private static java.util.regex.Pattern compile(String regexp, Pattern.Flag[] flags) {
+        int bits = 0;
+        for (Pattern.Flag flag : flags) bits |= flag.getValue();
+        return java.util.regex.Pattern.compile(regexp, bits);
+    }
+
+    /** @return the message as Hibernate Validator would render it, or {@code null} if it needs interpolation */
+    private static String literalMessage(Annotation annotation) throws ReflectiveOperationException {
+        Object message = annotation.annotationType().getMethod("message").invoke(annotation);
+        String text = (String) message;
+        return text.indexOf('{') < 0 && text.indexOf('$') < 0 && text.indexOf('\\') < 0 ? text : null;
+    }
+
+    private static boolean defaultGroupOnly(Annotation annotation) throws ReflectiveOperationException {
+        Class<?>[] groups = (Class<?>[]) annotation.annotationType().getMethod("groups").invoke(annotation);
+        return groups.length == 0 || (groups.length == 1 && groups[0] == Default.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> getter(MethodHandles.Lookup lookup, Class<?> type, Field field) throws Throwable {
+        String name = field.getName();
+        String prefix = field.getType() == boolean.class ? "is" : "get";
+        MethodHandle getter = lookup.findVirtual(type,
+                prefix + Character.toUpperCase(name.charAt(0)) + name.substring(1),
+                MethodType.methodType(field.getType()));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                MethodType.methodType(Function.class),
+                MethodType.methodType(Object.class, Object.class),
+                getter,
+                MethodType.methodType(field.getType().isPrimitive() ? Object.class : field.getType(), type));
+        return (Function<Object, Object>) site.getTarget().invokeExact();
+    }
+
+    private record Check(String field, String message, Function<Object, Object> getter, Predicate<Object> valid) {
+    }
+
+    /** The current date in the default zone, recomputed only when the day rolls over. */
+    private static final class Today {
+        private volatile Day day = new Day(LocalDate.MIN, Long.MIN_VALUE);
+
+        LocalDate get() {
+            Day current = day;
+            if (System.currentTimeMillis() < current.until()) return current.date();
+
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = LocalDate.now(zone);
+            day = new Day(date, date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+            return date;
+        }
+
+        private record Day(LocalDate date, long until) {
+        }
+    }
+}
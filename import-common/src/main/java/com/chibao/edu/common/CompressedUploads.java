@@ -0,0 +1,208 @@
+package com.chibao.edu.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Support for compressed CSV uploads: {@code .csv.gz}, and {@code .zip} archives holding a single
+ * CSV file.
+ * <p>
+ * Uploads are never inflated to disk. {@link #open} wraps the stored file's stream so parsers read
+ * the CSV as it is decompressed, and it stops with an {@link IOException} once more than the
+ * allowed number of bytes has come out, so a zip bomb cannot fill the heap or stall the import.
+ * {@link #limit} puts the same kind of cap on a raw request body.
+ * <p>
+ * A zip with any other entry than its CSV file is rejected with {@link InvalidArchive}, rather
+ * than importing one file of several: {@link #checkArchive} reads just the central directory of
+ * a saved upload, and {@link #open} checks again once the CSV entry has been read, for uploads
+ * parsed as they arrive.
+ */
+public final class CompressedUploads {
+    /** Default of {@code import.max-decompressed-size}, in every module that reads compressed uploads. */
+    public static final String DEFAULT_MAX_DECOMPRESSED_SIZE = "2GB";
+
+    private CompressedUploads() {
+    }
+
+    public static boolean isCompressed(String filename) {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".gz") || lower.endsWith(".zip");
+    }
+
+    /**
+     * The extension of the content: {@code csv} for {@code patients.csv.gz} and for any
+     * {@code .zip}, whose entry is checked when it is opened; the plain extension otherwise.
+     */
+    public static String contentExtension(String filename) {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".zip")) return "csv";
+        if (lower.endsWith(".gz")) lower = lower.substring(0, lower.length() - ".gz".length());
+        int dot = lower.lastIndexOf('.');
+        return dot < 0 ? "" : lower.substring(dot + 1);
+    }
+
+    /** @return {@code raw} itself for an uncompressed upload, otherwise a decompressing stream over it */
+    public static InputStream open(InputStream raw, String filename, long maxDecompressedBytes) throws IOException {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        try {
+            if (lower.endsWith(".gz")) {
+                return new Bounded(new GZIPInputStream(raw, 64 * 1024), maxDecompressedBytes, "Decompressed upload");
+            }
+            if (lower.endsWith(".zip")) {
+                return new Bounded(openCsvEntry(new ZipInputStream(raw)), maxDecompressedBytes, "Decompressed upload");
+            }
+            return raw;
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /** Rejects a saved {@code .zip} upload unless it holds exactly one file, a CSV. */
+    public static void checkArchive(Path file, String filename) throws IOException {
+        if (!filename.toLowerCase(Locale.ROOT).endsWith(".zip")) return;
+
+        String csv = null;
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                if (isIgnored(entry)) continue;
+                if (csv != null) throw secondEntry(csv, entry);
+                checkCsv(entry);
+                csv = entry.getName();
+            }
+        } catch (ZipException e) {
+            throw new InvalidArchive("Zip upload is not a valid archive: " + e.getMessage());
+        }
+        if (csv == null) throw new InvalidArchive("Zip upload is empty");
+    }
+
+    /** @return {@code raw} capped at {@code maxBytes}; the read that goes past it fails with {@link TooLarge} */
+    public static InputStream limit(InputStream raw, long maxBytes) {
+        return new Bounded(raw, maxBytes, "Upload");
+    }
+
+    private static InputStream openCsvEntry(ZipInputStream zip) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (isIgnored(entry)) continue;
+            checkCsv(entry);
+            return new SingleEntry(zip, entry.getName());
+        }
+        throw new InvalidArchive("Zip upload is empty");
+    }
+
+    // Folders, and the resource forks macOS adds to archives it creates
+    private static boolean isIgnored(ZipEntry entry) {
+        return entry.isDirectory() || entry.getName().startsWith("__MACOSX/");
+    }
+
+    private static void checkCsv(ZipEntry entry) throws InvalidArchive {
+        if (!entry.getName().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+            throw new InvalidArchive("Zip upload must contain a CSV file, found " + entry.getName());
+        }
+    }
+
+    private static InvalidArchive secondEntry(String csv, ZipEntry entry) {
+        return new InvalidArchive("Zip upload must contain a single CSV file, found "
+                + entry.getName() + " besides " + csv);
+    }
+
+    /** Thrown once more bytes than allowed have been read from an upload. */
+    public static final class TooLarge extends IOException {
+        TooLarge(String message) {
+            super(message);
+        }
+    }
+
+    /** Thrown for a {@code .zip} upload that does not hold exactly one CSV file; the client's mistake, not ours. */
+    public static final class InvalidArchive extends IOException {
+        InvalidArchive(String message) {
+            super(message);
+        }
+    }
+
+    /** The CSV entry of a zip; reaching its end checks that nothing but ignored entries follows. */
+    private static final class SingleEntry extends FilterInputStream {
+        private final String name;
+        private boolean checked;
+
+        SingleEntry(ZipInputStream zip, String name) {
+            super(zip);
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) checkNoMoreEntries();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) checkNoMoreEntries();
+            return n;
+        }
+
+        private void checkNoMoreEntries() throws IOException {
+            if (checked) return;
+            checked = true;
+            ZipInputStream zip = (ZipInputStream) in;
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!isIgnored(entry)) throw secondEntry(name, entry);
+            }
+        }
+    }
+
+    private static final class Bounded extends FilterInputStream {
+        private final long limit;
+        private final String what;
+        private long count;
+
+        Bounded(InputStream in, long limit, String what) {
+            super(in);
+            this.limit = limit;
+            this.what = what;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new TooLarge(what + " exceeds " + limit + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.chibao.edu.common;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only error report, written while the import runs instead of from a list at the end.
+ * <p>
+ * {@link #add} only queues the row; a background thread takes rows off the bounded queue in
+ * batches and writes them, so formatting and disk writes stay off the import thread and at most
+ * {@link #QUEUE_CAPACITY} error rows are ever in memory. When the writer falls behind,
+ * {@code add} waits. The file and the thread appear with the first row, so a clean import writes
+ * nothing. {@link #close} waits for the queue to drain and reports any write error.
+ * <p>
+ * Whatever goes wrong in the writer, {@code add} and {@code close} must not wait on it forever:
+ * the writer thread records any {@link Throwable} and keeps taking rows, and a full queue whose writer
+ * has gone makes {@code add} fail instead of block.
+ */
+public final class ErrorSink<T> implements Closeable {
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final Object END = new Object();
+
+    private final Path out;
+    private final RowWriterFactory<T> writerFactory;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private Thread writer;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /** Writes rows in the report's format; used only from the background thread. */
+    public interface RowWriter<T> extends Closeable {
+        void write(T row) throws IOException;
+    }
+
+    public interface RowWriterFactory<T> {
+        RowWriter<T> open(Path out) throws IOException;
+    }
+
+    public ErrorSink(Path out, RowWriterFactory<T> writerFactory) {
+        this.out = out;
+        this.writerFactory = writerFactory;
+    }
+
+    /** A CSV report with the given header; each row is one record. */
+    public static ErrorSink<String[]> csv(Path out, String... headers) {
+        return new ErrorSink<>(out, path -> {
+            Files.createDirectories(path.getParent());
+            CSVPrinter printer = new CSVPrinter(Files.newBufferedWriter(path), CSVFormat.DEFAULT.builder().setHeader(headers).build());
+            return new RowWriter<>() {
+                @Override
+                public void write(String[] row) throws IOException {
+                    printer.printRecord((Object[]) row);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    printer.close();
+                }
+            };
+        });
+    }
+
+    public void add(T row) throws IOException {
+        if (closed) throw new IllegalStateException("Error report already closed");
+        if (failure != null) throw new IOException("Writing the error report failed", failure);
+        if (writer == null) {
+            writer = Thread.ofVirtual().name("error-sink-" + out.getFileName()).start(this::drain);
+        }
+        put(row);
+    }
+
+    public boolean isEmpty() {
+        return writer == null;
+    }
+
+    public String path() {
+        return out.toAbsolutePath().toString();
+    }
+
+    /** Flushes every queued row and closes the file; safe to call more than once. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (writer == null) return;
+
+        put(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the error report");
+        }
+        if (failure != null) throw new IOException("Writing the error report failed", failure);
+    }
+
+    private void put(Object item) throws IOException {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (!writer.isAlive()) throw new IOException("Error report writer has stopped", failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing an error row");
+        }
+    }
+
+    // After a failure the rest of the queue is still taken, so add() and close() never block on it
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        RowWriter<T> rowWriter = null;
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Object item : batch) {
+                    if (item == END) {
+                        if (rowWriter != null) rowWriter.close();
+                        return;
+                    }
+                    if (failure != null) continue;
+                    try {
+                        if (rowWriter == null) rowWriter = writerFactory.open(out);
+                        rowWriter.write((T) item);
+                    } catch (Throwable e) {
+                        // Errors too: a writer thread that dies leaves add() waiting on a full queue
+                        failure = asIOException(e);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Error report writer interrupted");
+        } catch (Throwable e) {
+            failure = asIOException(e);
+        }
+    }
+
+    private static IOException asIOException(Throwable e) {
+        return e instanceof IOException io ? io : new IOException(e.toString(), e);
+    }
+}
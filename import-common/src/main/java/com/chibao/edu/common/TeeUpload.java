@@ -0,0 +1,101 @@
+package com.chibao.edu.common;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * An upload saved to disk, hashed and parsed in a single pass over the request body.
+ * <p>
+ * CSV is parsed straight off the tee. Workbooks are only saved and hashed this way:
+ * {@code .xlsx} is a zip whose directory sits at the end, so it cannot be parsed before the
+ * last byte is on disk.
+ * <p>
+ * Every byte a parser reads from {@link #stream()} is also written to the target file and fed
+ * to a SHA-256 digest. Parsers close their input when they stop, possibly before the end, so
+ * closing the stream does nothing; {@link #finish()} copies whatever the parser left unread and
+ * returns the hash. {@link #close()} only releases the target file, for when the upload is
+ * abandoned.
+ */
+public final class TeeUpload implements Closeable {
+    private final InputStream body;
+    private final OutputStream file;
+    private final MessageDigest digest;
+    private final InputStream stream = new Tee();
+    private String hash;
+
+    private TeeUpload(InputStream body, OutputStream file) {
+        this.body = body;
+        this.file = file;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static TeeUpload to(InputStream body, Path target) throws IOException {
+        return new TeeUpload(body, new BufferedOutputStream(Files.newOutputStream(target), 64 * 1024));
+    }
+
+    /** The upload's bytes, written through to the file as they are read. */
+    public InputStream stream() {
+        return stream;
+    }
+
+    /** Reads the rest of the body through to the file and closes it. @return the hex SHA-256 of the upload */
+    public String finish() throws IOException {
+        if (hash != null) return hash;
+        byte[] buffer = new byte[64 * 1024];
+        while (stream.read(buffer) >= 0) {
+            // copied by the tee
+        }
+        file.close();
+        hash = HexFormat.of().formatHex(digest.digest());
+        return hash;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (hash == null) file.close();
+    }
+
+    private final class Tee extends InputStream {
+        @Override
+        public int read() throws IOException {
+            int b = body.read();
+            if (b >= 0) {
+                file.write(b);
+                digest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = body.read(b, off, len);
+            if (n > 0) {
+                file.write(b, off, n);
+                digest.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return body.available();
+        }
+
+        // The body belongs to the request and is finished by finish()
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.chibao.edu.parser;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What {@link ColumnProfiler} learned about a file: a type per expected column and the date
+ * layout locked in for {@code dob}. Rows are parsed against the locked layout; only values it
+ * rejects go through the lenient list.
+ */
+public final class ColumnProfile {
+    enum ColumnType { EMPTY, NUMBER, DATE, TEXT }
+
+    private final Map<String, ColumnType> types;
+    private final DatePattern dobPattern;
+
+    ColumnProfile(Map<String, ColumnType> types, DatePattern dobPattern) {
+        this.types = types;
+        this.dobPattern = dobPattern;
+    }
+
+    public LocalDate parseDob(String text) {
+        if (dobPattern != null) {
+            LocalDate date = dobPattern.tryParse(text);
+            if (date != null) return date;
+        }
+        return DatePattern.parseLenient(text);
+    }
+
+    /** @return the locked {@code dob} layout, e.g. {@code dd/MM/yyyy}, or {@code null} if none was inferred */
+    public String dateFormat() {
+        return dobPattern != null ? dobPattern.pattern() : null;
+    }
+
+    public Map<String, String> columnTypes() {
+        Map<String, String> described = new LinkedHashMap<>();
+        types.forEach((column, type) -> described.put(column, type.name()));
+        return described;
+    }
+}
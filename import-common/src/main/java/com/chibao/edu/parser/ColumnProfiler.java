@@ -0,0 +1,101 @@
+package com.chibao.edu.parser;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Profiles the first {@link #SAMPLE_SIZE} rows of a file, one value per expected column per row.
+ * <p>
+ * A column is typed DATE or NUMBER only if every non-blank sample fits. For {@code dob} the layout
+ * that parses the most samples is locked in, so a file of {@code dd/MM/yyyy} dates is parsed with
+ * that one formatter from the first row on. Ties go to the earlier layout in {@link DatePattern},
+ * unless the later one is just a stricter form of it.
+ */
+public final class ColumnProfiler {
+    public static final int SAMPLE_SIZE = 100;
+    private static final Pattern NUMBER = Pattern.compile("[+-]?\\d+(\\.\\d+)?");
+
+    private final List<String> columns;
+    private final int dobColumn;
+    private final int[] nonBlank;
+    private final int[] numbers;
+    private final int[] dates;
+    private final int[] dobHits = new int[DatePattern.values().length];
+    private int sampled;
+
+    public ColumnProfiler(List<String> columns) {
+        this.columns = columns;
+        this.dobColumn = columns.indexOf("dob");
+        this.nonBlank = new int[columns.size()];
+        this.numbers = new int[columns.size()];
+        this.dates = new int[columns.size()];
+    }
+
+    public boolean isComplete() {
+        return sampled >= SAMPLE_SIZE;
+    }
+
+    /** @param values one raw value per column, in constructor order; {@code null} for a missing cell */
+    public void add(String[] values) {
+        add(values, false);
+    }
+
+    /**
+     * @param values   one cell text per column, in constructor order; {@code null} for a missing cell
+     * @param typedDob whether the {@code dob} cell is a real date cell; it then counts as a date but
+     *                 does not vote for a text layout
+     */
+    public void add(String[] values, boolean typedDob) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i == dobColumn && typedDob) {
+                nonBlank[i]++;
+                dates[i]++;
+                continue;
+            }
+            String value = values[i];
+            if (value == null || value.isBlank()) continue;
+
+            nonBlank[i]++;
+            if (NUMBER.matcher(value).matches()) numbers[i]++;
+
+            boolean date = false;
+            for (DatePattern p : DatePattern.values()) {
+                if (p.tryParse(value) == null) continue;
+                date = true;
+                if (i == dobColumn) dobHits[p.ordinal()]++;
+                else break;
+            }
+            if (date) dates[i]++;
+        }
+        sampled++;
+    }
+
+    public ColumnProfile profile() {
+        Map<String, ColumnProfile.ColumnType> types = new LinkedHashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            types.put(columns.get(i), typeOf(i));
+        }
+        return new ColumnProfile(types, lockedDobPattern());
+    }
+
+    private ColumnProfile.ColumnType typeOf(int column) {
+        if (nonBlank[column] == 0) return ColumnProfile.ColumnType.EMPTY;
+        if (dates[column] == nonBlank[column]) return ColumnProfile.ColumnType.DATE;
+        if (numbers[column] == nonBlank[column]) return ColumnProfile.ColumnType.NUMBER;
+        return ColumnProfile.ColumnType.TEXT;
+    }
+
+    private DatePattern lockedDobPattern() {
+        DatePattern best = null;
+        for (DatePattern p : DatePattern.values()) {
+            int hits = dobHits[p.ordinal()];
+            if (hits == 0) continue;
+            if (best == null || hits > dobHits[best.ordinal()]) best = p;
+            // Same coverage with a stricter layout: report the stricter one, dates come out identical
+            else if (hits == dobHits[best.ordinal()] && p.narrows(best)) best = p;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,65 @@
+package com.chibao.edu.parser;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Pattern;
+
+/**
+ * The date layouts accepted for {@code dob}, in the order lenient parsing tries them.
+ * <p>
+ * Formatters are built once. Each layout also has a cheap shape check, so a value that clearly
+ * does not fit is rejected without going through {@link DateTimeFormatter} and its exceptions.
+ */
+enum DatePattern {
+    ISO("yyyy-MM-dd", DateTimeFormatter.ISO_LOCAL_DATE, "[+-]?\\d{4,}-\\d{2}-\\d{2}", null),
+    D_M_YYYY("d/M/yyyy", "\\d+/\\d+/\\d{4,}", null),
+    D_M_YY("d/M/yy", "\\d+/\\d+/\\d{2}", null),
+    DD_MM_YYYY("dd/MM/yyyy", "\\d{2}/\\d{2}/\\d{4,}", D_M_YYYY),
+    DD_MM_YYYY_DASHED("dd-MM-yyyy", "\\d{2}-\\d{2}-\\d{4,}", null),
+    MM_DD_YYYY("MM/dd/yyyy", "\\d{2}/\\d{2}/\\d{4,}", null);
+
+    private final String pattern;
+    private final DateTimeFormatter formatter;
+    private final Pattern shape;
+    private final DatePattern narrows;
+
+    DatePattern(String pattern, String shape, DatePattern narrows) {
+        this(pattern, DateTimeFormatter.ofPattern(pattern), shape, narrows);
+    }
+
+    DatePattern(String pattern, DateTimeFormatter formatter, String shape, DatePattern narrows) {
+        this.pattern = pattern;
+        this.formatter = formatter;
+        this.shape = Pattern.compile(shape);
+        this.narrows = narrows;
+    }
+
+    String pattern() {
+        return pattern;
+    }
+
+    /** Whether every value this layout accepts parses to the same date under {@code other}. */
+    boolean narrows(DatePattern other) {
+        return narrows == other;
+    }
+
+    /** @return the parsed date, or {@code null} when {@code text} is not a date in this layout */
+    LocalDate tryParse(String text) {
+        if (!shape.matcher(text).matches()) return null;
+        try {
+            return LocalDate.parse(text, formatter);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /** First layout that accepts {@code text}, the same precedence the per-row parser always had. */
+    static LocalDate parseLenient(String text) {
+        for (DatePattern p : values()) {
+            LocalDate date = p.tryParse(text);
+            if (date != null) return date;
+        }
+        return null;
+    }
+}
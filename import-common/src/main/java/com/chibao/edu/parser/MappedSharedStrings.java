@@ -0,0 +1,201 @@
+package com.chibao.edu.parser;
+
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Shared strings table kept on disk instead of the heap, for workbooks whose unique strings run
+ * to hundreds of megabytes.
+ * <p>
+ * Loading streams the {@code sharedStrings.xml} part once and writes every string's UTF-8 bytes
+ * to a temp file, with the offset of each one in a second, fixed-width index file. Both are then
+ * memory-mapped and {@link #getItemAt} decodes a string only when a cell asks for it, so the heap
+ * holds nothing per string. Lookups use absolute reads and are safe from several threads. Text
+ * is gathered the same way {@code ReadOnlySharedStringsTable} does it, phonetic runs included.
+ * Closing deletes the files.
+ */
+public final class MappedSharedStrings implements SharedStrings, Closeable {
+    private static final long CHUNK_SIZE = 1L << 30;
+    // A cell holds at most 32,767 characters; chunks overlap by that much so no string is split
+    private static final int MAX_STRING_BYTES = 32767 * 3;
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final int count;
+    private final int uniqueCount;
+    private final int size;
+    private final MappedByteBuffer[] data;
+    private final MappedByteBuffer[] index;
+
+    private MappedSharedStrings(Path dataFile, Path indexFile, int count, int uniqueCount, int size) throws IOException {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.count = count;
+        this.uniqueCount = uniqueCount;
+        this.size = size;
+        this.data = map(dataFile, MAX_STRING_BYTES);
+        this.index = map(indexFile, 0);
+    }
+
+    public static MappedSharedStrings load(PackagePart part) throws IOException, SAXException {
+        Path dataFile = Files.createTempFile("shared-strings-", ".bin");
+        Path indexFile = Files.createTempFile("shared-strings-", ".idx");
+        try {
+            Loader loader;
+            try (OutputStream dataOut = new BufferedOutputStream(Files.newOutputStream(dataFile), 64 * 1024);
+                 DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile), 64 * 1024));
+                 InputStream in = part.getInputStream()) {
+                loader = new Loader(dataOut, indexOut);
+                XMLReader xmlReader = XMLHelper.newXMLReader();
+                xmlReader.setContentHandler(loader);
+                xmlReader.parse(new InputSource(in));
+                // End offset of the last string
+                indexOut.writeLong(loader.offset);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (ParserConfigurationException e) {
+                throw new IOException("Cannot create XML reader", e);
+            }
+            return new MappedSharedStrings(dataFile, indexFile, loader.count, loader.uniqueCount, loader.size);
+        } catch (IOException | SAXException | RuntimeException e) {
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(indexFile);
+            throw e;
+        }
+    }
+
+    @Override
+    public RichTextString getItemAt(int idx) {
+        Objects.checkIndex(idx, size);
+        long start = offset(idx);
+        int length = (int) (offset(idx + 1) - start);
+
+        byte[] bytes = new byte[length];
+        data[(int) (start / CHUNK_SIZE)].get((int) (start % CHUNK_SIZE), bytes);
+        return new XSSFRichTextString(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public int getUniqueCount() {
+        return uniqueCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            Files.deleteIfExists(dataFile);
+        } finally {
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    private long offset(int idx) {
+        long position = (long) idx * Long.BYTES;
+        return index[(int) (position / CHUNK_SIZE)].getLong((int) (position % CHUNK_SIZE));
+    }
+
+    /** Maps the file in {@link #CHUNK_SIZE} steps, each chunk reaching {@code overlap} bytes into the next. */
+    private static MappedByteBuffer[] map(Path file, int overlap) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            int chunks = (int) Math.max(1, (fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            MappedByteBuffer[] buffers = new MappedByteBuffer[chunks];
+            for (int i = 0; i < chunks; i++) {
+                long start = i * CHUNK_SIZE;
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE + overlap, fileSize - start));
+            }
+            return buffers;
+        }
+    }
+
+    /** Writes each {@code <si>} as it closes: its text to the data file, its start to the index. */
+    private static final class Loader extends DefaultHandler {
+        private final OutputStream dataOut;
+        private final DataOutputStream indexOut;
+        private final StringBuilder text = new StringBuilder();
+        private boolean capturing;
+        private long offset;
+        private int count;
+        private int uniqueCount;
+        private int size;
+
+        private Loader(OutputStream dataOut, DataOutputStream indexOut) {
+            this.dataOut = dataOut;
+            this.indexOut = indexOut;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs) {
+            switch (localName) {
+                case "sst" -> {
+                    count = parseInt(attrs.getValue("count"));
+                    uniqueCount = parseInt(attrs.getValue("uniqueCount"));
+                }
+                case "si" -> text.setLength(0);
+                case "t" -> capturing = true;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "t" -> capturing = false;
+                case "si" -> write();
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (capturing) text.append(ch, start, length);
+        }
+
+        private void write() {
+            try {
+                byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                indexOut.writeLong(offset);
+                dataOut.write(bytes);
+                offset += bytes.length;
+                size++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static int parseInt(String value) {
+            return value == null ? 0 : Integer.parseInt(value);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.chibao.edu.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkedUploadTest {
+
+    private static final int CHUNK = ChunkedUpload.MIN_CHUNK_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void create_shouldRejectSizeAboveMaximum() {
+        // Arrange
+        Path target = dir.resolve("patients.csv");
+
+        // Act & Assert
+        assertThatThrownBy(() -> ChunkedUpload.create(target, 10L * CHUNK + 1, CHUNK, 10L * CHUNK))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(target).doesNotExist();
+    }
+
+    @Test
+    void writeChunk_shouldReceiveChunksInAnyOrder() throws Exception {
+        // Arrange
+        byte[] data = new byte[2 * CHUNK + 10];
+        Arrays.fill(data, 0, CHUNK, (byte) 'a');
+        Arrays.fill(data, CHUNK, 2 * CHUNK, (byte) 'b');
+        Arrays.fill(data, 2 * CHUNK, data.length, (byte) 'c');
+        Path target = dir.resolve("patients.csv");
+        ChunkedUpload upload = ChunkedUpload.create(target, data.length, CHUNK, data.length);
+
+        // Act
+        for (int index : new int[]{2, 0, 1}) {
+            byte[] chunk = chunk(data, index);
+            upload.writeChunk(index, new ByteArrayInputStream(chunk), sha256(chunk));
+        }
+        String hash = upload.complete();
+
+        // Assert
+        assertThat(upload.missingChunks()).isEmpty();
+        assertThat(Files.readAllBytes(target)).isEqualTo(data);
+        assertThat(hash).isEqualTo(sha256(data));
+    }
+
+    @Test
+    void writeChunk_shouldRejectSameChunkWhileItIsWritten() throws Exception {
+        // Arrange
+        byte[] data = new byte[2 * CHUNK];
+        Arrays.fill(data, (byte) 'a');
+        byte[] first = chunk(data, 0);
+        Path target = dir.resolve("patients.csv");
+        ChunkedUpload.create(target, data.length, CHUNK, data.length);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the first write mid-chunk, with its lock taken
+        InputStream stalled = new ByteArrayInputStream(first) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (pos == 0) {
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+        CompletableFuture<Void> slow = CompletableFuture.runAsync(() -> {
+            try {
+                ChunkedUpload.open(target).writeChunk(0, stalled, sha256(first));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        reading.await();
+
+        // Act & Assert
+        try {
+            assertThatThrownBy(() -> ChunkedUpload.open(target).writeChunk(0, new ByteArrayInputStream(first), sha256(first)))
+                    .isInstanceOf(IllegalStateException.class);
+            // Other chunks are not held up
+            byte[] second = chunk(data, 1);
+            ChunkedUpload.open(target).writeChunk(1, new ByteArrayInputStream(second), sha256(second));
+        } finally {
+            release.countDown();
+        }
+        slow.join();
+        assertThat(ChunkedUpload.open(target).missingChunks()).isEmpty();
+    }
+
+    private static byte[] chunk(byte[] data, int index) {
+        return Arrays.copyOfRange(data, index * CHUNK, Math.min(data.length, (index + 1) * CHUNK));
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
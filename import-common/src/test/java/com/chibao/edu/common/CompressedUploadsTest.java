@@ -0,0 +1,132 @@
+package com.chibao.edu.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressedUploadsTest {
+
+    private static final String CSV = "firstName,lastName\nJohn,Doe\n";
+
+    @Test
+    void contentExtension_shouldLookThroughCompression() {
+        // Act & Assert
+        assertThat(CompressedUploads.contentExtension("patients.csv.gz")).isEqualTo("csv");
+        assertThat(CompressedUploads.contentExtension("patients.ZIP")).isEqualTo("csv");
+        assertThat(CompressedUploads.contentExtension("patients.xlsx")).isEqualTo("xlsx");
+        assertThat(CompressedUploads.contentExtension("patients")).isEmpty();
+    }
+
+    @Test
+    void openGzip_shouldDecompressOnTheFly() throws IOException {
+        // Arrange
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(CSV.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Act
+        try (InputStream in = CompressedUploads.open(new ByteArrayInputStream(bytes.toByteArray()), "patients.csv.gz", 1024)) {
+            // Assert
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(CSV);
+        }
+    }
+
+    @Test
+    void openZip_shouldReadTheCsvEntry() throws IOException {
+        // Arrange
+        byte[] zip = zip("export/", "export/patients.csv");
+
+        // Act
+        try (InputStream in = CompressedUploads.open(new ByteArrayInputStream(zip), "patients.zip", 1024)) {
+            // Assert
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(CSV);
+        }
+    }
+
+    @Test
+    void openZipWithoutCsv_shouldThrowException() throws IOException {
+        // Arrange
+        byte[] zip = zip("patients.txt");
+
+        // Act & Assert
+        assertThatThrownBy(() -> CompressedUploads.open(new ByteArrayInputStream(zip), "patients.zip", 1024))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("must contain a CSV file");
+    }
+
+    @Test
+    void openZipWithSecondFile_shouldThrowExceptionAfterTheCsv() throws IOException {
+        // Arrange
+        byte[] zip = zip("patients.csv", "__MACOSX/._patients.csv", "more-patients.csv");
+
+        // Act & Assert
+        assertThatThrownBy(() -> {
+            try (InputStream in = CompressedUploads.open(new ByteArrayInputStream(zip), "patients.zip", 1024)) {
+                in.readAllBytes();
+            }
+        })
+                .isInstanceOf(CompressedUploads.InvalidArchive.class)
+                .hasMessageContaining("single CSV file, found more-patients.csv");
+    }
+
+    @Test
+    void checkArchive_shouldAcceptOneCsvAndRejectMore(@TempDir Path dir) throws IOException {
+        // Arrange
+        Path single = Files.write(dir.resolve("single.zip"), zip("export/", "export/patients.csv", "__MACOSX/._patients.csv"));
+        Path several = Files.write(dir.resolve("several.zip"), zip("patients.csv", "more-patients.csv"));
+        Path empty = Files.write(dir.resolve("empty.zip"), zip("export/"));
+
+        // Act & Assert
+        CompressedUploads.checkArchive(single, "single.zip");
+        assertThatThrownBy(() -> CompressedUploads.checkArchive(several, "several.zip"))
+                .isInstanceOf(CompressedUploads.InvalidArchive.class)
+                .hasMessageContaining("single CSV file");
+        assertThatThrownBy(() -> CompressedUploads.checkArchive(empty, "empty.zip"))
+                .isInstanceOf(CompressedUploads.InvalidArchive.class)
+                .hasMessageContaining("empty");
+    }
+
+    @Test
+    void openBeyondDecompressedLimit_shouldThrowException() throws IOException {
+        // Arrange
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(new byte[64 * 1024]);
+        }
+
+        // Act & Assert
+        assertThatThrownBy(() -> {
+            try (InputStream in = CompressedUploads.open(new ByteArrayInputStream(bytes.toByteArray()), "bomb.csv.gz", 1024)) {
+                in.readAllBytes();
+            }
+        })
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("exceeds 1024 bytes");
+    }
+
+    private static byte[] zip(String... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (String name : entries) {
+                zip.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) zip.write(CSV.getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,166 @@
+package com.chibao.edu.async.processor;
+
+import com.chibao.edu.common.ErrorSink;
+import com.chibao.edu.common.ImportJob;
+import com.chibao.edu.common.ImportOption;
+import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.RowSpill;
+import com.chibao.edu.common.RowStream;
+import com.chibao.edu.entity.Patient;
+import com.chibao.edu.repository.ImportJobRepository;
+import com.chibao.edu.repository.PatientRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Runs a started import on the {@code importTaskExecutor}. It is a bean of its own so that
+ * {@code ImportServiceImpl} calls it through the proxy; a call on {@code this} would skip both
+ * {@code @Async} and {@code @Transactional}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ImportAsyncProcessorCSV {
+    private final ImportJobRepository importJobRepository;
+    private final PatientRepository patientRepository;
+    private final Path errorReportDir = Paths.get(System.getProperty("java.io.tmpdir"), "excel-import-errors");
+
+    @Async("importTaskExecutor")
+    @Transactional
+    public void processAsync(UUID jobId, RowStream rows, ImportOption option) {
+        ImportJob job = importJobRepository.findById(jobId).orElseThrow();
+        job.setStatus("RUNNING");
+        importJobRepository.save(job);
+
+        int rowNumber = 0;
+        int success = 0;
+        int failed = 0;
+        int batchSize = 100;
+        // By national id: a row repeating one in the block updates the queued patient, not a second copy
+        Map<String, Patient> toSave = new LinkedHashMap<>();
+
+        try (rows; ErrorSink<String[]> errors = ErrorSink.csv(errorReportDir.resolve("errors-" + jobId + ".csv"),
+                "row", "errors", "firstName", "lastName", "email", "phone", "nationalId", "dob")) {
+            List<RowResult> block = new ArrayList<>(batchSize);
+            while (rows.hasNext()) {
+                block.add(rows.next());
+                if (block.size() < batchSize && rows.hasNext()) continue;
+
+                // The patients already stored for the block's rows, in one query instead of one per row
+                Map<String, Patient> existingByNationalId = patientRepository.findExistingByNationalId(
+                        block.stream().map(RowResult::getNationalId).toList());
+                for (RowResult rr : block) {
+                    rowNumber++;
+                    if (!rr.getErrors().isEmpty()) {
+                        failed++;
+                        errors.add(toErrorRow(rowNumber, rr.getErrors(), rr));
+                        if (option == ImportOption.FAIL) {
+                            failJob(job, errors);
+                            return;
+                        }
+                        continue;
+                    }
+                    Patient existing = existingByNationalId.get(rr.getNationalId());
+                    if (existing != null) {
+                        switch (option) {
+                            case SKIP:
+                                success++; // skipped considered success
+                                break;
+                            case UPDATE:
+                                applyRowToPatient(rr, existing);
+                                toSave.put(rr.getNationalId(), existing);
+                                break;
+                            case FAIL:
+                                failed++;
+                                errors.add(toErrorRow(rowNumber, List.of("Duplicate nationalId"), rr));
+                                failJob(job, errors);
+                                return;
+                        }
+                    } else {
+                        Patient pNew = new Patient();
+                        applyRowToPatient(rr, pNew);
+                        toSave.put(rr.getNationalId(), pNew);
+                        // A later row of the same block with this id is a duplicate of it
+                        existingByNationalId.put(rr.getNationalId(), pNew);
+                    }
+                }
+                block.clear();
+
+                if (!toSave.isEmpty()) {
+                    patientRepository.saveAll(toSave.values());
+// flush not available, but saveAll should persist
+                    success += toSave.size();
+                    toSave.clear();
+                    job.setStatus("RUNNING");
+                    importJobRepository.save(job);
+                }
+            }
+
+            // Waits for the report to be fully written
+            errors.close();
+            job.setStatus(errors.isEmpty() ? "SUCCESS" : "PARTIAL_FAILED");
+            job.setCompletedAt(LocalDateTime.now());
+            if (!errors.isEmpty()) {
+                job.setErrorFile(errors.path());
+            }
+            importJobRepository.save(job);
+        } catch (Exception ex) {
+            job.setStatus("FAILED");
+            job.setCompletedAt(LocalDateTime.now());
+            importJobRepository.save(job);
+        } finally {
+            // The rows are imported or the job failed; a restart goes through a new preview either way
+            deleteSpill(jobId);
+        }
+    }
+
+    private void deleteSpill(UUID jobId) {
+        try {
+            RowSpill.delete(jobId);
+        } catch (IOException ex) {
+            log.warn("Failed to delete row spill of job {}", jobId, ex);
+        }
+    }
+
+    private void failJob(ImportJob job, ErrorSink<String[]> errors) throws IOException {
+        errors.close();
+        job.setStatus("FAILED");
+        job.setCompletedAt(LocalDateTime.now());
+        if (!errors.isEmpty()) {
+            job.setErrorFile(errors.path());
+        }
+        importJobRepository.save(job);
+    }
+
+    private String[] toErrorRow(int rowNumber, List<String> errs, RowResult rr) {
+        return new String[]{
+                String.valueOf(rowNumber),
+                String.join("; ", errs),
+                rr.getFirstName(), rr.getLastName(), rr.getEmail(), rr.getPhone(), rr.getNationalId(),
+                rr.getDob() == null ? "" : rr.getDob().toString()
+        };
+    }
+
+
+    private void applyRowToPatient(RowResult r, Patient p) {
+        p.setFirstName(r.getFirstName());
+        p.setLastName(r.getLastName());
+        p.setEmail(r.getEmail());
+        p.setPhone(r.getPhone());
+        p.setNationalId(r.getNationalId());
+        p.setDob(r.getDob());
+    }
+}
@@ -1,8 +1,31 @@
 package com.chibao.edu.common;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 public interface FileParser {
     ParseResult parse(String filePath) throws IOException;
     boolean supports(String filename);
-}
\ No newline at end of file
+
+    // Parsers without a parallel engine simply ignore the mode
+    default ParseResult parse(String filePath, ParseMode mode) throws IOException {
+        return parse(filePath);
+    }
+
+    // Parsers that cannot stream hand back their collected (and capped) result
+    default RowStream stream(String filePath) throws IOException {
+        return RowStream.of(parse(filePath));
+    }
+
+    default RowStream stream(String filePath, ParseMode mode) throws IOException {
+        return stream(filePath);
+    }
+
+    // Parses an upload front to back as it arrives; the filename says whether it is compressed
+    RowStream stream(InputStream in, String filename) throws IOException;
+
+    // Quick data-row count for head-only previews, or -1 when the parser has no cheaper way than parsing
+    default long countRows(String filePath) throws IOException {
+        return -1;
+    }
+}
@@ -1,6 +1,8 @@
 package com.chibao.edu.common;
 
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
 import lombok.Data;
@@ -22,4 +24,10 @@ public class ImportJob {
     private String errorFile;
     private LocalDateTime createdAt;
     private LocalDateTime completedAt;
+    // SHA-256 of the upload; with the option it identifies an import that already ran
+    private String contentHash;
+    @Enumerated(EnumType.STRING)
+    private ImportOption importOption;
+    // Set when the job reused an earlier job's result instead of importing again
+    private UUID reusedFromJobId;
 }
\ No newline at end of file
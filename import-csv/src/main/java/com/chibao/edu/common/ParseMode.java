@@ -0,0 +1,5 @@
+package com.chibao.edu.common;
+
+public enum ParseMode {
+    SEQUENTIAL, PARALLEL
+}
@@ -3,7 +3,12 @@ package com.chibao.edu.common;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 @Data
 @AllArgsConstructor
@@ -12,7 +17,13 @@ public class ParseResult {
     private List<RowResult> rows;
     private String message;
     private boolean tooManyRows;
+    // Filled in by parsers that profile their columns; null otherwise
+    private Map<String, String> columnTypes;
+    private String dateFormat;
 
+    public ParseResult(boolean headerValid, List<RowResult> rows, String message, boolean tooManyRows) {
+        this(headerValid, rows, message, tooManyRows, null, null);
+    }
 
     public static ParseResult error(String message) {
         return new ParseResult(false, List.of(), message, false);
@@ -22,4 +33,24 @@ public class ParseResult {
     public static ParseResult tooManyRows(String message) {
         return new ParseResult(false, List.of(), message, true);
     }
+
+    /** Drains a stream into a result, stopping with a "Too many rows" error past {@code maxRows}. */
+    public static ParseResult collect(RowStream stream, int maxRows) throws IOException {
+        if (!stream.isHeaderValid()) {
+            return new ParseResult(false, Collections.emptyList(), stream.getMessage(), false);
+        }
+
+        List<RowResult> rows = new ArrayList<>();
+        try {
+            while (stream.hasNext()) {
+                if (rows.size() == maxRows) {
+                    return new ParseResult(true, List.of(RowResult.error("Too many rows. Max allowed: " + maxRows)), null, false);
+                }
+                rows.add(stream.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new ParseResult(true, rows, null, false, stream.getColumnTypes(), stream.getDateFormat());
+    }
 }
\ No newline at end of file
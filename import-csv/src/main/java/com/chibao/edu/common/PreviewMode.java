@@ -0,0 +1,6 @@
+package com.chibao.edu.common;
+
+// FULL parses and validates every row; HEAD parses only the preview rows and estimates the total
+public enum PreviewMode {
+    FULL, HEAD
+}
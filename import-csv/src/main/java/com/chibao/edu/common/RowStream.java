@@ -0,0 +1,68 @@
+package com.chibao.edu.common;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed rows of a file, handed out one at a time.
+ * <p>
+ * Unlike {@link ParseResult} nothing is collected, so only the rows the caller keeps are in
+ * memory and there is no row cap. Header problems are known as soon as the stream is open: an
+ * invalid header gives an empty stream with {@link #isHeaderValid()} false. A read error while
+ * iterating surfaces as an {@link java.io.UncheckedIOException}. Always close the stream, it
+ * holds the file open.
+ */
+public interface RowStream extends Iterator<RowResult>, Closeable {
+    boolean isHeaderValid();
+    String getMessage();
+    // Null when the parser does not profile its columns
+    Map<String, String> getColumnTypes();
+    String getDateFormat();
+
+    static RowStream invalidHeader(String message) {
+        return of(new ParseResult(false, Collections.emptyList(), message, false));
+    }
+
+    /** Wraps an already collected result, for parsers that cannot stream. */
+    static RowStream of(ParseResult result) {
+        Iterator<RowResult> rows = result.getRows().iterator();
+        return new RowStream() {
+            @Override
+            public boolean isHeaderValid() {
+                return result.isHeaderValid();
+            }
+
+            @Override
+            public String getMessage() {
+                return result.getMessage();
+            }
+
+            @Override
+            public Map<String, String> getColumnTypes() {
+                return result.getColumnTypes();
+            }
+
+            @Override
+            public String getDateFormat() {
+                return result.getDateFormat();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public RowResult next() {
+                return rows.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -6,6 +6,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 @Configuration
 @EnableAsync
@@ -20,4 +21,10 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    // Used by ParallelCsvParser: one worker per core, segments are CPU bound
+    @Bean(name = "csvParsePool", destroyMethod = "shutdown")
+    public ForkJoinPool csvParsePool() {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
 }
\ No newline at end of file
@@ -1,39 +1,97 @@
 package com.chibao.edu.controller;
 
+import com.chibao.edu.common.ChunkedUpload;
+import com.chibao.edu.common.CompressedUploads;
+import com.chibao.edu.common.ImportJob;
+import com.chibao.edu.common.ImportOption;
+import com.chibao.edu.common.ParseMode;
+import com.chibao.edu.common.PreviewMode;
+import com.chibao.edu.common.TeeUpload;
+import com.chibao.edu.dto.ImportPreviewResponse;
+import com.chibao.edu.repository.ImportJobRepository;
+import com.chibao.edu.service.ImportService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 
 @RestController
+@RequiredArgsConstructor
 public class ImportController {
+    private static final String DEFAULT_CHUNK_SIZE = "8388608"; // 8MB
     private final ImportService importService;
     private final ImportJobRepository importJobRepository;
 
+    // The multipart limit, applied to the raw-body upload too
+    @Value("${spring.servlet.multipart.max-file-size:1MB}")
+    private DataSize maxFileSize = DataSize.ofMegabytes(1);
+
+    @Value("${import.max-upload-size:" + ChunkedUpload.DEFAULT_MAX_UPLOAD_SIZE + "}")
+    private DataSize maxUploadSize = DataSize.ofGigabytes(2);
+
 
     // Upload file and return preview (stores file temporarily)
     @PostMapping(consumes = {"multipart/form-data"})
-    public ResponseEntity<?> uploadAndPreview(@RequestParam("file") MultipartFile file) throws IOException {
+    public ResponseEntity<?> uploadAndPreview(@RequestParam("file") MultipartFile file,
+                                              @RequestParam(value = "mode", defaultValue = "SEQUENTIAL") ParseMode mode,
+                                              @RequestParam(value = "preview", defaultValue = "FULL") PreviewMode previewMode) throws IOException {
         if (file == null || file.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "file is required"));
 
+        try (InputStream in = file.getInputStream()) {
+            return saveAndPreview(file.getOriginalFilename(), in, mode, previewMode);
+        }
+    }
+
+
+    // Upload the file as the raw request body: it is saved, hashed and parsed as it arrives,
+    // with no multipart buffering. The read that goes past the multipart size limit fails the upload
+    @PostMapping(value = "/stream", consumes = {"text/csv", "application/gzip", "application/zip", "application/octet-stream"})
+    public ResponseEntity<?> streamAndPreview(@RequestParam("filename") String filename,
+                                              @RequestParam(value = "preview", defaultValue = "FULL") PreviewMode previewMode,
+                                              InputStream body) throws IOException {
+        try (InputStream in = CompressedUploads.limit(body, maxFileSize.toBytes())) {
+            return saveAndPreview(filename, in, ParseMode.SEQUENTIAL, previewMode);
+        } catch (CompressedUploads.TooLarge e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of("error", e.getMessage()));
+        }
+    }
 
-        String original = file.getOriginalFilename();
+
+    private ResponseEntity<?> saveAndPreview(String filename, InputStream body, ParseMode mode,
+                                             PreviewMode previewMode) throws IOException {
+        String original = Paths.get(Objects.requireNonNull(filename)).getFileName().toString();
         UUID jobId = UUID.randomUUID();
         Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "excel-import", jobId.toString());
         Files.createDirectories(dir);
         Path target = dir.resolve(original);
-        file.transferTo(target.toFile());
-
 
-// call service to parse preview (service will use Excel parser)
-        ImportPreviewResponse preview = importService.previewFromFile(target.toString());
+        // A sequential preview is made in the same pass that saves the upload; the parallel
+        // parser needs the whole file on disk first
+        ImportPreviewResponse preview;
+        if (mode == ParseMode.PARALLEL) {
+            String contentHash;
+            try (TeeUpload upload = TeeUpload.to(body, target)) {
+                contentHash = upload.finish();
+            }
+            preview = importService.previewFromFile(jobId, target.toString(), mode, previewMode);
+            preview.setContentHash(contentHash);
+        } else {
+            preview = importService.previewFromUpload(jobId, body, target.toString(), previewMode);
+        }
 
 
 // save import job record with path and PREVIEWED status
@@ -41,6 +99,7 @@ public class ImportController {
         j.setJobId(jobId);
         j.setFilename(original);
         j.setFilePath(target.toString());
+        j.setContentHash(preview.getContentHash());
         j.setStatus("PREVIEWED");
         j.setCreatedAt(LocalDateTime.now());
         importJobRepository.save(j);
@@ -50,12 +109,113 @@ public class ImportController {
     }
 
 
+    // Chunked upload, for files too large for one request or links too flaky for it: initiate,
+    // PUT the numbered chunks in any order (resending any that fail), then complete
+    @PostMapping("/uploads")
+    public ResponseEntity<?> initiateUpload(@RequestParam("filename") String filename,
+                                            @RequestParam("size") long size,
+                                            @RequestParam(value = "chunkSize", defaultValue = DEFAULT_CHUNK_SIZE) int chunkSize) throws IOException {
+        String original = Paths.get(Objects.requireNonNull(filename)).getFileName().toString();
+        UUID jobId = UUID.randomUUID();
+        Path target = Paths.get(System.getProperty("java.io.tmpdir"), "excel-import", jobId.toString(), original);
+
+        ChunkedUpload upload;
+        try {
+            upload = ChunkedUpload.create(target, size, chunkSize, maxUploadSize.toBytes());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        // The job exists from the start so the upload can be resumed by its id
+        ImportJob j = new ImportJob();
+        j.setJobId(jobId);
+        j.setFilename(original);
+        j.setFilePath(target.toString());
+        j.setStatus("UPLOADING");
+        j.setCreatedAt(LocalDateTime.now());
+        importJobRepository.save(j);
+
+        return ResponseEntity.ok(Map.of("jobId", jobId, "chunkSize", upload.getChunkSize(), "chunks", upload.chunkCount()));
+    }
+
+
+    @PutMapping(value = "/uploads/{jobId}/chunks/{index}", consumes = {"application/octet-stream"})
+    public ResponseEntity<?> uploadChunk(@PathVariable("jobId") UUID jobId,
+                                         @PathVariable("index") int index,
+                                         @RequestHeader("X-Chunk-SHA256") String sha256,
+                                         InputStream body) throws IOException {
+        Optional<ImportJob> job = uploadingJob(jobId);
+        if (job.isEmpty()) return ResponseEntity.notFound().build();
+
+        try {
+            ChunkedUpload.open(Paths.get(job.get().getFilePath())).writeChunk(index, body, sha256);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            // The same chunk is being written by another request
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+
+    // What is left to send, for resuming an interrupted upload
+    @GetMapping("/uploads/{jobId}")
+    public ResponseEntity<?> uploadStatus(@PathVariable("jobId") UUID jobId) throws IOException {
+        Optional<ImportJob> job = uploadingJob(jobId);
+        if (job.isEmpty()) return ResponseEntity.notFound().build();
+
+        ChunkedUpload upload = ChunkedUpload.open(Paths.get(job.get().getFilePath()));
+        return ResponseEntity.ok(Map.of("jobId", jobId, "size", upload.getSize(), "chunkSize", upload.getChunkSize(),
+                "missing", upload.missingChunks()));
+    }
+
+
+    // Every chunk is already in place, so the file is previewed where it lies
+    @PostMapping("/uploads/{jobId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable("jobId") UUID jobId,
+                                            @RequestParam(value = "mode", defaultValue = "SEQUENTIAL") ParseMode mode,
+                                            @RequestParam(value = "preview", defaultValue = "FULL") PreviewMode previewMode) throws IOException {
+        Optional<ImportJob> job = uploadingJob(jobId);
+        if (job.isEmpty()) return ResponseEntity.notFound().build();
+        ImportJob j = job.get();
+
+        ChunkedUpload upload;
+        String contentHash;
+        try {
+            upload = ChunkedUpload.open(Paths.get(j.getFilePath()));
+            contentHash = upload.complete();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+
+        ImportPreviewResponse preview = importService.previewFromFile(jobId, j.getFilePath(), mode, previewMode);
+        preview.setContentHash(contentHash);
+        j.setContentHash(contentHash);
+        j.setStatus("PREVIEWED");
+        importJobRepository.save(j);
+        // Only now: if the preview failed, the job is still UPLOADING and complete can be retried
+        upload.finish();
+
+        return ResponseEntity.ok(Map.of("jobId", jobId, "preview", preview));
+    }
+
+
+    private Optional<ImportJob> uploadingJob(UUID jobId) {
+        return importJobRepository.findById(jobId).filter(j -> "UPLOADING".equals(j.getStatus()));
+    }
+
+
     // Start import based on stored file
     @PostMapping("/start")
     public ResponseEntity<?> startImport(@RequestParam("jobId") UUID jobId,
-                                         @RequestParam("option") ImportOption option) {
-        importService.startImportFromStoredFile(jobId, option);
-        return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+                                         @RequestParam("option") ImportOption option,
+                                         @RequestParam(value = "mode", defaultValue = "SEQUENTIAL") ParseMode mode) {
+        ImportJob j = importService.startImportFromStoredFile(jobId, option, mode);
+        if (j.getReusedFromJobId() == null) return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+
+        // Nothing ran: this exact file was already imported with the same options
+        return ResponseEntity.ok(Map.of("jobId", jobId, "status", j.getStatus(), "reusedFromJobId", j.getReusedFromJobId()));
     }
 
 
@@ -63,4 +223,11 @@ public class ImportController {
     public ResponseEntity<?> status(@PathVariable UUID jobId) {
         return ResponseEntity.of(importJobRepository.findById(jobId));
     }
-}
\ No newline at end of file
+
+
+    // A zip that is not one CSV file is found out while parsing, wherever the parser reports it from
+    @ExceptionHandler(CompressedUploads.InvalidArchive.class)
+    public ResponseEntity<?> invalidArchive(CompressedUploads.InvalidArchive e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+}
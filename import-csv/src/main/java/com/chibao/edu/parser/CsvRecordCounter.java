@@ -0,0 +1,74 @@
+package com.chibao.edu.parser;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Counts CSV records without tokenizing them: a line feed ends a record unless it sits inside a
+ * quoted value.
+ * <p>
+ * The mapped file is read eight bytes at a time. A word with no quote in it, which is nearly
+ * every word of a typical upload, has its line feeds found with a SWAR zero-byte test and
+ * counted with one {@link Long#bitCount}; only words holding a quote are walked byte by byte to
+ * track the quote parity. Empty lines are counted as records, so the result is an estimate when a
+ * file has blank lines.
+ */
+final class CsvRecordCounter {
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long LINE_FEEDS = 0x0A0A0A0A0A0A0A0AL;
+    private static final long QUOTES = 0x2222222222222222L;
+
+    private CsvRecordCounter() {
+    }
+
+    /** @return the number of data records, header excluded */
+    static long countDataRows(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) return 0;
+
+            long records = 0;
+            boolean inQuotes = false;
+            for (long start = 0; start < size; start += WINDOW_SIZE) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                int limit = buf.limit();
+                int p = 0;
+
+                for (; p + Long.BYTES <= limit; p += Long.BYTES) {
+                    long word = buf.getLong(p);
+                    if (zeroBytes(word ^ QUOTES) == 0) {
+                        if (!inQuotes) records += Long.bitCount(zeroBytes(word ^ LINE_FEEDS));
+                        continue;
+                    }
+                    // Little-endian: the low byte is the first one in the file
+                    for (int i = 0; i < Long.BYTES; i++, word >>>= 8) {
+                        byte b = (byte) word;
+                        if (b == '"') inQuotes = !inQuotes;
+                        else if (b == '\n' && !inQuotes) records++;
+                    }
+                }
+                for (; p < limit; p++) {
+                    byte b = buf.get(p);
+                    if (b == '"') inQuotes = !inQuotes;
+                    else if (b == '\n' && !inQuotes) records++;
+                }
+            }
+
+            // A last record without a trailing line feed
+            MappedByteBuffer last = channel.map(FileChannel.MapMode.READ_ONLY, size - 1, 1);
+            if (last.get(0) != '\n') records++;
+            return Math.max(0, records - 1);
+        }
+    }
+
+    /** @return a word with the high bit set in exactly the bytes of {@code x} that are zero */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+}
@@ -0,0 +1,232 @@
+package com.chibao.edu.parser;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Record tokenizer that scans a memory-mapped CSV file byte by byte.
+ * <p>
+ * Follows the {@code CSVFormat.DEFAULT} dialect used by {@link CsvPatientParser}: comma delimiter,
+ * double-quote encapsulation with {@code ""} escapes, CR, LF or CRLF record separators, and empty
+ * lines ignored. For each record only the field boundaries are recorded; a field becomes a
+ * {@link String} when {@link #field(int)} asks for it, so unused columns never allocate.
+ * <p>
+ * The file is mapped through a sliding window, so files larger than 2 GB work as long as a
+ * single record fits in the window. Scanning can start at any record boundary, which is how
+ * {@link ParallelCsvParser} hands each segment its own tokenizer over a shared channel.
+ */
+final class MappedCsvTokenizer {
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final int PLAIN = 0;
+    private static final int ESCAPED = 1;
+
+    private final FileChannel channel;
+    private final long end;
+
+    private MappedByteBuffer buf;
+    private long windowStart;
+    private long position;
+
+    private int fieldCount;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] kinds = new int[16];
+    private byte[] scratch = new byte[256];
+
+    MappedCsvTokenizer(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+    }
+
+    /** Absolute file offset where the next record starts. */
+    long position() {
+        return position;
+    }
+
+    /** Advances to the next non-empty record. */
+    boolean next() throws IOException {
+        return next(end);
+    }
+
+    /**
+     * Advances to the next non-empty record that starts before {@code stopAt}. The record itself
+     * may extend past {@code stopAt}; callers splitting a file use that to detect a bad split.
+     */
+    boolean next(long stopAt) throws IOException {
+        while (position < stopAt) {
+            ensureWindow(position);
+            int limit = (int) (Math.min(end, windowStart + buf.capacity()) - windowStart);
+            boolean lastWindow = windowStart + limit == end;
+
+            int consumed = scanRecord((int) (position - windowStart), limit, lastWindow);
+            if (consumed < 0) {
+                if (windowStart == position) {
+                    throw new IOException("CSV record at offset " + position + " exceeds " + WINDOW_SIZE + " bytes");
+                }
+                remap(position);
+                continue;
+            }
+
+            position = windowStart + consumed;
+            if (fieldCount > 0) return true;
+        }
+        return false;
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    /** The trimmed value of field {@code i} of the current record. */
+    String field(int i) {
+        int s = starts[i];
+        int e = ends[i];
+        int len;
+        if (kinds[i] == ESCAPED) {
+            len = unescape(s, e);
+        } else {
+            len = e - s;
+            ensureScratch(len);
+            buf.get(s, scratch, 0, len);
+        }
+
+        int from = 0;
+        while (from < len && (scratch[from] & 0xFF) <= ' ') from++;
+        while (len > from && (scratch[len - 1] & 0xFF) <= ' ') len--;
+        return from == len ? "" : new String(scratch, from, len - from, StandardCharsets.UTF_8);
+    }
+
+    /** Values of the given fields of the current record; {@code null} for an index of -1 or past the last field. */
+    String[] fields(int[] columns) {
+        String[] values = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            int col = columns[i];
+            values[i] = col >= 0 && col < fieldCount ? field(col) : null;
+        }
+        return values;
+    }
+
+    /**
+     * Scans one record starting at buffer index {@code p}.
+     *
+     * @return the buffer index just past the record separator, or -1 when the record runs past
+     * the end of the current window and the window has to move
+     */
+    private int scanRecord(int p, int limit, boolean lastWindow) throws IOException {
+        fieldCount = 0;
+
+        if (p < limit && isEol(buf.get(p))) {
+            return skipEol(p, limit, lastWindow);
+        }
+
+        while (true) {
+            if (p < limit && buf.get(p) == '"') {
+                int contentStart = ++p;
+                boolean escaped = false;
+                while (true) {
+                    if (p >= limit) {
+                        if (lastWindow) throw new IOException("EOF reached before encapsulated token finished");
+                        return -1;
+                    }
+                    if (buf.get(p) == '"') {
+                        if (p + 1 >= limit && !lastWindow) return -1;
+                        if (p + 1 < limit && buf.get(p + 1) == '"') {
+                            escaped = true;
+                            p += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    p++;
+                }
+                addField(contentStart, p, escaped ? ESCAPED : PLAIN);
+                p++;
+
+                while (p < limit) {
+                    byte b = buf.get(p);
+                    if (b == ',' || isEol(b)) break;
+                    if (b != ' ' && b != '\t') {
+                        throw new IOException("Invalid char between encapsulated token and delimiter at offset "
+                                + (windowStart + p));
+                    }
+                    p++;
+                }
+            } else {
+                int fieldStart = p;
+                while (p < limit) {
+                    byte b = buf.get(p);
+                    if (b == ',' || isEol(b)) break;
+                    p++;
+                }
+                addField(fieldStart, p, PLAIN);
+            }
+
+            if (p >= limit) return lastWindow ? p : -1;
+
+            if (buf.get(p) == ',') {
+                p++;
+                continue;
+            }
+            return skipEol(p, limit, lastWindow);
+        }
+    }
+
+    private int skipEol(int p, int limit, boolean lastWindow) {
+        if (buf.get(p) == '\r') {
+            p++;
+            if (p < limit) {
+                if (buf.get(p) == '\n') p++;
+            } else if (!lastWindow) {
+                return -1;
+            }
+            return p;
+        }
+        return p + 1;
+    }
+
+    private static boolean isEol(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private void addField(int start, int end, int kind) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+            kinds = Arrays.copyOf(kinds, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        kinds[fieldCount] = kind;
+        fieldCount++;
+    }
+
+    private int unescape(int s, int e) {
+        ensureScratch(e - s);
+        int len = 0;
+        for (int p = s; p < e; p++) {
+            byte b = buf.get(p);
+            scratch[len++] = b;
+            if (b == '"') p++;
+        }
+        return len;
+    }
+
+    private void ensureScratch(int len) {
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+    }
+
+    private void ensureWindow(long offset) throws IOException {
+        if (buf == null || offset < windowStart || offset >= windowStart + buf.capacity()) {
+            remap(offset);
+        }
+    }
+
+    private void remap(long offset) throws IOException {
+        windowStart = offset;
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, end - offset));
+    }
+}
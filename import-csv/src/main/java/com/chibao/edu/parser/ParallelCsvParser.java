@@ -0,0 +1,338 @@
+package com.chibao.edu.parser;
+
+import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.RowStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a CSV upload in parallel, in segments of about {@code import.csv.parallel.segment-size}
+ * bytes, on the {@code csvParsePool}.
+ * <p>
+ * Split points are moved to record boundaries before any parsing starts. A first parallel pass
+ * counts the quote characters in each nominal segment; since an escaped {@code ""} counts twice,
+ * the running parity tells whether a given offset is inside a quoted field. Each split is then
+ * moved forward to the first line feed with even parity, so a newline inside a quoted value never
+ * ends a segment.
+ * <p>
+ * Rows come out as a {@link RowStream} in file order, so row numbers are the same as in a
+ * sequential parse. Only a window of segments is parsed ahead of the reader, which keeps memory
+ * bounded whatever the file size. A segment is trusted only once the one before it ended exactly
+ * on its start. If a segment overruns its end (a stray quote inside an unquoted field breaks the
+ * parity rule), its own rows are still good, and the rest of the file is parsed sequentially from
+ * where it stopped.
+ */
+@Slf4j
+@Component
+public class ParallelCsvParser {
+    private static final int SCAN_CHUNK = 64 * 1024;
+
+    private final ForkJoinPool pool;
+    private final PatientRowMapper rowMapper = new PatientRowMapper();
+
+    @Value("${import.csv.parallel.segment-size:1MB}")
+    DataSize segmentSize = DataSize.ofMegabytes(1);
+
+    public ParallelCsvParser(@Qualifier("csvParsePool") ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public RowStream stream(String filePath) throws IOException {
+        Path path = Path.of(filePath);
+        if (!Files.exists(path)) throw new IOException("File not found: " + filePath);
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            MappedCsvTokenizer header = new MappedCsvTokenizer(channel, 0, size);
+
+            Map<String, Integer> headerMap = readHeader(header);
+            String missing = rowMapper.missingHeaders(headerMap.keySet());
+            if (missing != null) {
+                channel.close();
+                return RowStream.invalidHeader(missing);
+            }
+
+            int[] columns = PatientRowMapper.EXPECTED_HEADERS.stream()
+                    .mapToInt(h -> headerMap.getOrDefault(h, -1))
+                    .toArray();
+            long dataStart = header.position();
+            ColumnProfile profile = profile(header, columns);
+            long[] bounds = split(channel, dataStart, size);
+            return new SegmentStream(filePath, channel, bounds, columns, profile);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Map<String, Integer> readHeader(MappedCsvTokenizer tokenizer) throws IOException {
+        Map<String, Integer> headerMap = new HashMap<>();
+        if (!tokenizer.next()) return headerMap;
+
+        for (int i = 0; i < tokenizer.fieldCount(); i++) {
+            headerMap.put(tokenizer.field(i), i);
+        }
+        return headerMap;
+    }
+
+    /** Profiles the leading records up front, so every segment parses with the same locked formats. */
+    private ColumnProfile profile(MappedCsvTokenizer tokenizer, int[] columns) throws IOException {
+        ColumnProfiler profiler = new ColumnProfiler(PatientRowMapper.EXPECTED_HEADERS);
+        while (!profiler.isComplete() && tokenizer.next()) {
+            profiler.add(tokenizer.fields(columns));
+        }
+        return profiler.profile();
+    }
+
+    /**
+     * @return segment boundaries {@code b[0] = dataStart < b[1] < ... < b[n] = size}, each one the
+     * start of a record as far as quote parity can tell
+     */
+    long[] split(FileChannel channel, long dataStart, long size) throws IOException {
+        long length = size - dataStart;
+        long segment = Math.max(1, segmentSize.toBytes());
+        int n = (int) Math.max(1, (length + segment - 1) / segment);
+        if (n <= 1) return new long[]{dataStart, size};
+
+        long[] nominal = new long[n + 1];
+        for (int i = 0; i <= n; i++) nominal[i] = dataStart + length * i / n;
+
+        List<Callable<Long>> counts = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long from = nominal[i];
+            long to = nominal[i + 1];
+            counts.add(() -> countQuotes(channel, from, to));
+        }
+        List<Long> quotes = invokeAll(counts);
+
+        List<Long> bounds = new ArrayList<>(n + 1);
+        bounds.add(dataStart);
+        boolean inQuotes = false;
+        for (int i = 1; i < n; i++) {
+            inQuotes ^= (quotes.get(i - 1) & 1) == 1;
+            long boundary = nextRecordStart(channel, nominal[i], nominal[i + 1], inQuotes);
+            if (boundary > bounds.get(bounds.size() - 1) && boundary < size) bounds.add(boundary);
+        }
+        bounds.add(size);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private long countQuotes(FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        byte[] chunk = new byte[SCAN_CHUNK];
+        long quotes = 0;
+        while (buf.hasRemaining()) {
+            int len = Math.min(chunk.length, buf.remaining());
+            buf.get(chunk, 0, len);
+            for (int i = 0; i < len; i++) {
+                if (chunk[i] == '"') quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    /**
+     * Scans {@code [from, to)} for the first line feed outside quotes.
+     *
+     * @return the offset just past it, or -1 when the whole range is one quoted value
+     */
+    private long nextRecordStart(FileChannel channel, long from, long to, boolean inQuotes) throws IOException {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        for (int p = 0; p < buf.limit(); p++) {
+            byte b = buf.get(p);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return from + p + 1;
+            }
+        }
+        return -1;
+    }
+
+    private Segment parseSegment(FileChannel channel, long start, long end, int[] columns, ColumnProfile profile)
+            throws IOException {
+        // The tokenizer may read past 'end': a record that starts inside the segment is finished
+        // even if a bad split cut it, and the overshoot is what flags the split as misaligned.
+        MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(channel, start, channel.size());
+        List<RowResult> rows = new ArrayList<>();
+
+        while (tokenizer.next(end)) {
+            rows.add(rowMapper.map(tokenizer.fields(columns), profile));
+        }
+        return new Segment(rows, tokenizer.position());
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing CSV", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        return results;
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause instanceof RuntimeException && cause.getCause() != null) cause = cause.getCause();
+        if (cause instanceof IOException io) return io;
+        return new IOException("Failed to parse CSV segment", cause);
+    }
+
+    /** @param end offset just past the segment's last record; equals the next boundary when the split was right */
+    private record Segment(List<RowResult> rows, long end) {
+    }
+
+    /**
+     * Hands out the rows of segment {@code i} while segments {@code i+1 .. i+window} parse on the
+     * pool. The window is twice the pool's parallelism, so workers stay busy while the reader
+     * catches up, and at most that many segments of rows are held at once.
+     */
+    private final class SegmentStream implements RowStream {
+        private final String filePath;
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int[] columns;
+        private final ColumnProfile profile;
+        private final int window = pool.getParallelism() * 2;
+        private final ArrayDeque<Future<Segment>> inFlight = new ArrayDeque<>();
+        private int submitted;
+        private int consumed;
+        private Iterator<RowResult> current = Collections.emptyIterator();
+        private MappedCsvTokenizer sequential;
+        private RowResult next;
+
+        SegmentStream(String filePath, FileChannel channel, long[] bounds, int[] columns, ColumnProfile profile) {
+            this.filePath = filePath;
+            this.channel = channel;
+            this.bounds = bounds;
+            this.columns = columns;
+            this.profile = profile;
+            fill();
+        }
+
+        @Override
+        public boolean isHeaderValid() {
+            return true;
+        }
+
+        @Override
+        public String getMessage() {
+            return null;
+        }
+
+        @Override
+        public Map<String, String> getColumnTypes() {
+            return profile.columnTypes();
+        }
+
+        @Override
+        public String getDateFormat() {
+            return profile.dateFormat();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    if (current.hasNext()) {
+                        next = current.next();
+                    } else if (sequential != null) {
+                        if (!sequential.next()) return false;
+                        next = rowMapper.map(sequential.fields(columns), profile);
+                    } else if (!advance()) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public RowResult next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            RowResult row = next;
+            next = null;
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            cancelInFlight();
+            channel.close();
+        }
+
+        /** Moves to the next segment; its start is confirmed because the previous one ended on it. */
+        private boolean advance() throws IOException {
+            Future<Segment> head = inFlight.poll();
+            if (head == null) return false;
+
+            Segment segment = await(head);
+            current = segment.rows().iterator();
+            consumed++;
+            if (segment.end() != bounds[consumed]) {
+                log.warn("CSV {} could not be split on record boundaries, parsing sequentially from offset {}",
+                        filePath, segment.end());
+                cancelInFlight();
+                sequential = new MappedCsvTokenizer(channel, segment.end(), bounds[bounds.length - 1]);
+            } else {
+                fill();
+            }
+            return true;
+        }
+
+        private void fill() {
+            while (inFlight.size() < window && submitted < bounds.length - 1) {
+                long start = bounds[submitted];
+                long end = bounds[submitted + 1];
+                inFlight.add(pool.submit(() -> parseSegment(channel, start, end, columns, profile)));
+                submitted++;
+            }
+        }
+
+        private Segment await(Future<Segment> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing CSV", e);
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+
+        private void cancelInFlight() {
+            for (Future<Segment> future : inFlight) future.cancel(true);
+            inFlight.clear();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.chibao.edu.parser;
+
+import com.chibao.edu.common.RowResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Row rules shared by the CSV parsers: header check, field mapping and validation.
+ * Every CSV engine funnels its raw field values through here, so they all produce the
+ * same {@link RowResult} for the same input.
+ */
+final class PatientRowMapper {
+    static final List<String> EXPECTED_HEADERS = List.of("firstName", "lastName", "email", "phone", "nationalId", "dob");
+    private static final Pattern EMAIL_PATTERN = Pattern.compile(
+            "^[A-Z0-9._%+-]+@[A-Z0-9.-]+\\.[A-Z]{2,}$", Pattern.CASE_INSENSITIVE);
+
+    /** @return {@code null} when every expected header is present, otherwise the error message */
+    String missingHeaders(Collection<String> headers) {
+        List<String> lower = headers.stream().map(String::toLowerCase).toList();
+        List<String> missing = EXPECTED_HEADERS.stream()
+                .filter(h -> !lower.contains(h.toLowerCase()))
+                .toList();
+        return missing.isEmpty() ? null : "Missing headers: " + String.join(", ", missing);
+    }
+
+    /** @param values raw values in {@link #EXPECTED_HEADERS} order; {@code null} for a missing column */
+    RowResult map(String[] values, ColumnProfile profile) {
+        RowResult rr = new RowResult();
+        rr.setFirstName(values[0]);
+        rr.setLastName(values[1]);
+        rr.setEmail(values[2]);
+        rr.setPhone(values[3]);
+        rr.setNationalId(values[4]);
+
+        String rawDob = values[5];
+        rr.setDob(rawDob == null || rawDob.isBlank() ? null : profile.parseDob(rawDob));
+        rr.setErrors(validateRow(rr, rawDob));
+        return rr;
+    }
+
+    private List<String> validateRow(RowResult rr, String rawDob) {
+        List<String> errs = new ArrayList<>();
+        if (isBlank(rr.getFirstName())) errs.add("firstName required");
+        if (isBlank(rr.getNationalId())) errs.add("nationalId required");
+        if (notBlank(rr.getEmail()) && !isValidEmail(rr.getEmail())) errs.add("invalid email");
+        if (rr.getDob() == null && notBlank(rawDob)) errs.add("dob not parseable");
+        return errs;
+    }
+
+    private boolean isValidEmail(String email) {
+        return email != null && EMAIL_PATTERN.matcher(email).matches();
+    }
+
+    private boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+
+    private boolean notBlank(String s) {
+        return !isBlank(s);
+    }
+}
@@ -0,0 +1,95 @@
+package com.chibao.edu.parser;
+
+import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.RowStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Row stream for the sequential parsers. Opening it reads ahead until {@link ColumnProfiler} has
+ * its sample; those rows are then handed out first, mapped with the resulting profile, and every
+ * later row is read and mapped only when asked for.
+ */
+class ProfiledRowStream implements RowStream {
+    private final PatientRowMapper rowMapper;
+    private final Source source;
+    private final Closeable resource;
+    private final ColumnProfile profile;
+    private final ArrayDeque<String[]> pending = new ArrayDeque<>();
+    private RowResult next;
+    private boolean done;
+
+    /** Raw records in {@link PatientRowMapper#EXPECTED_HEADERS} order. */
+    interface Source {
+        /** @return the next record, or {@code null} at the end of the file */
+        String[] next() throws IOException;
+    }
+
+    ProfiledRowStream(PatientRowMapper rowMapper, Source source, Closeable resource) throws IOException {
+        this.rowMapper = rowMapper;
+        this.source = source;
+        this.resource = resource;
+
+        ColumnProfiler profiler = new ColumnProfiler(PatientRowMapper.EXPECTED_HEADERS);
+        String[] values;
+        while (!profiler.isComplete() && (values = source.next()) != null) {
+            profiler.add(values);
+            pending.add(values);
+        }
+        this.profile = profiler.profile();
+    }
+
+    /** The header was valid if the stream could be opened at all. */
+    @Override
+    public boolean isHeaderValid() {
+        return true;
+    }
+
+    @Override
+    public String getMessage() {
+        return null;
+    }
+
+    @Override
+    public Map<String, String> getColumnTypes() {
+        return profile.columnTypes();
+    }
+
+    @Override
+    public String getDateFormat() {
+        return profile.dateFormat();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            String[] values = pending.poll();
+            try {
+                if (values == null) values = source.next();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (values == null) done = true;
+            else next = rowMapper.map(values, profile);
+        }
+        return next != null;
+    }
+
+    @Override
+    public RowResult next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        RowResult row = next;
+        next = null;
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        resource.close();
+    }
+}
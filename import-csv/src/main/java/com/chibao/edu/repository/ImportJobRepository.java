@@ -1,9 +1,13 @@
 package com.chibao.edu.repository;
 
 import com.chibao.edu.common.ImportJob;
+import com.chibao.edu.common.ImportOption;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Optional;
 import java.util.UUID;
 
 public interface ImportJobRepository extends JpaRepository<ImportJob, UUID> {
+    Optional<ImportJob> findFirstByJobIdNotAndContentHashAndImportOptionAndStatusOrderByCompletedAtDesc(
+            UUID jobId, String contentHash, ImportOption importOption, String status);
 }
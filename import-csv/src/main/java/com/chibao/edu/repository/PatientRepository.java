@@ -3,9 +3,29 @@ package com.chibao.edu.repository;
 import com.chibao.edu.entity.Patient;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public interface PatientRepository extends JpaRepository<Patient, Long> {
     Optional<Patient> findByNationalId(String nationalId);
     boolean existsByNationalId(String nationalId);
-}
\ No newline at end of file
+    List<Patient> findAllByNationalIdIn(Collection<String> nationalIds);
+
+    // The stored patients with any of these national ids, by national id, in one query; null ids are ignored
+    default Map<String, Patient> findExistingByNationalId(Collection<String> nationalIds) {
+        Set<String> ids = new HashSet<>(nationalIds);
+        ids.remove(null);
+
+        Map<String, Patient> existing = new HashMap<>();
+        if (ids.isEmpty()) return existing;
+        for (Patient p : findAllByNationalIdIn(ids)) {
+            existing.put(p.getNationalId(), p);
+        }
+        return existing;
+    }
+}
@@ -1,13 +1,18 @@
 package com.chibao.edu.service;
 
+import com.chibao.edu.common.ImportJob;
 import com.chibao.edu.common.ImportOption;
+import com.chibao.edu.common.ParseMode;
+import com.chibao.edu.common.PreviewMode;
 import com.chibao.edu.dto.ImportPreviewResponse;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.UUID;
 
 public interface ImportService {
-    ImportPreviewResponse previewFromFile(String filePath) throws IOException;
-    void startImportFromStoredFile(UUID jobId, ImportOption option);
+    ImportPreviewResponse previewFromFile(UUID jobId, String filePath, ParseMode mode, PreviewMode preview) throws IOException;
+    ImportPreviewResponse previewFromUpload(UUID jobId, InputStream body, String filePath, PreviewMode preview) throws IOException;
+    ImportJob startImportFromStoredFile(UUID jobId, ImportOption option, ParseMode mode);
 }
 
@@ -1,38 +1,33 @@
 package com.chibao.edu.service.impl;
 
+import com.chibao.edu.async.processor.ImportAsyncProcessorCSV;
 import com.chibao.edu.common.*;
 import com.chibao.edu.dto.ImportPreviewResponse;
-import com.chibao.edu.entity.Patient;
 import com.chibao.edu.repository.ImportJobRepository;
-import com.chibao.edu.repository.PatientRepository;
 import com.chibao.edu.service.ImportService;
 import lombok.RequiredArgsConstructor;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
-import org.springframework.scheduling.annotation.Async;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ImportServiceImpl implements ImportService {
+    private static final int PREVIEW_ROWS = 20;
     // Inject all parsers (CSV + Excel) and pick based on file extension
     private final List<FileParser> parsers;
     private final ImportJobRepository importJobRepository;
-    private final PatientRepository patientRepository;
-    private final Path errorReportDir = Paths.get(System.getProperty("java.io.tmpdir"), "excel-import-errors");
+    private final ImportAsyncProcessorCSV asyncProcessor;
 
     private FileParser selectParser(String filePath) {
         return parsers.stream()
@@ -43,29 +38,142 @@ public class ImportServiceImpl implements ImportService {
 
 
     @Override
-    public ImportPreviewResponse previewFromFile(String filePath) throws IOException {
+    public ImportPreviewResponse previewFromFile(UUID jobId, String filePath, ParseMode mode, PreviewMode preview) throws IOException {
         FileParser parser = selectParser(filePath);
-        ParseResult pr = parser.parse(filePath);
-        UUID jobId = UUID.randomUUID(); // preview-only id - actual persistent job created by controller
+        if (preview == PreviewMode.HEAD) return previewHead(parser, filePath, jobId);
 
+        try (RowStream rows = parser.stream(filePath, mode)) {
+            if (!rows.isHeaderValid()) {
+                return ImportPreviewResponse.of(jobId, false, List.of(), rows.getMessage());
+            }
+
+            // Every row goes to the spill, so the start step does not parse the file again
+            try (RowSpill.Writer spill = RowSpill.create(jobId, filePath)) {
+                ImportPreviewResponse resp = spillRows(rows, spill, jobId);
+                spill.commit(rows.getColumnTypes(), rows.getDateFormat());
+                return resp;
+            }
+        }
+    }
+
+    // Nothing is spilled here, so the start step parses the file
+    private ImportPreviewResponse previewHead(FileParser parser, String filePath, UUID jobId) throws IOException {
+        try (RowStream rows = parser.stream(filePath)) {
+            if (!rows.isHeaderValid()) {
+                return ImportPreviewResponse.of(jobId, false, List.of(), rows.getMessage());
+            }
+
+            List<RowResult> previewRows = headRows(rows);
+            long totalRows = parser.countRows(filePath);
+            if (totalRows < 0) totalRows = previewRows.size() + countRest(rows);
+            return headResponse(jobId, rows, previewRows, totalRows);
+        }
+    }
+
+    /**
+     * Same previews as {@link #previewFromFile}, made while the upload is being saved to
+     * {@code filePath}: the parser reads the request body through a {@link TeeUpload}, so the
+     * file is never read back. The response carries the upload's SHA-256.
+     */
+    @Override
+    public ImportPreviewResponse previewFromUpload(UUID jobId, InputStream body, String filePath, PreviewMode preview) throws IOException {
+        FileParser parser = selectParser(filePath);
+
+        try (TeeUpload upload = TeeUpload.to(body, Path.of(filePath))) {
+            ImportPreviewResponse resp;
+            try (RowStream rows = parser.stream(upload.stream(), filePath)) {
+                if (!rows.isHeaderValid()) {
+                    resp = ImportPreviewResponse.of(jobId, false, List.of(), rows.getMessage());
+                } else if (preview == PreviewMode.HEAD) {
+                    List<RowResult> previewRows = headRows(rows);
+                    // A compressed upload has to be parsed to be counted; anything else is counted from disk
+                    long rest = CompressedUploads.isCompressed(filePath) ? countRest(rows) : -1;
+                    upload.finish();
+                    long totalRows = rest >= 0 ? previewRows.size() + rest : parser.countRows(filePath);
+                    resp = headResponse(jobId, rows, previewRows, totalRows);
+                } else {
+                    try (RowSpill.Writer spill = RowSpill.createForUpload(jobId, filePath)) {
+                        resp = spillRows(rows, spill, jobId);
+                        upload.finish();
+                        spill.commit(rows.getColumnTypes(), rows.getDateFormat());
+                    }
+                }
+            }
+            resp.setContentHash(upload.finish());
+            return resp;
+        }
+    }
+
+    private ImportPreviewResponse spillRows(RowStream rows, RowSpill.Writer spill, UUID jobId) throws IOException {
+        List<RowResult> previewRows = new ArrayList<>();
+        int totalRows = 0;
+        try {
+            while (rows.hasNext()) {
+                RowResult rr = rows.next();
+                spill.add(rr);
+                if (previewRows.size() < PREVIEW_ROWS) previewRows.add(rr);
+                totalRows++;
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        ImportPreviewResponse resp = ImportPreviewResponse.of(jobId, true, previewRows, null);
+        resp.setTotalRows(totalRows);
+        resp.setColumnTypes(rows.getColumnTypes());
+        resp.setDateFormat(rows.getDateFormat());
+        return resp;
+    }
+
+    private List<RowResult> headRows(RowStream rows) throws IOException {
+        List<RowResult> previewRows = new ArrayList<>();
+        try {
+            while (previewRows.size() < PREVIEW_ROWS && rows.hasNext()) previewRows.add(rows.next());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return previewRows;
+    }
+
+    private long countRest(RowStream rows) throws IOException {
+        long count = 0;
+        try {
+            for (; rows.hasNext(); rows.next()) count++;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return count;
+    }
 
-        List<RowResult> previewRows = pr.getRows().stream().limit(20).collect(Collectors.toList());
-        ImportPreviewResponse resp = ImportPreviewResponse.of(jobId, pr.isHeaderValid(), previewRows, pr.getMessage());
-        resp.setTotalRows(pr.getRows().size());
-        resp.setTooManyRows(pr.isTooManyRows());
+    private ImportPreviewResponse headResponse(UUID jobId, RowStream rows, List<RowResult> previewRows, long totalRows) {
+        ImportPreviewResponse resp = ImportPreviewResponse.of(jobId, true, previewRows, null);
+        resp.setTotalRows((int) Math.min(Integer.MAX_VALUE, totalRows));
+        resp.setRowCountEstimated(true);
+        resp.setColumnTypes(rows.getColumnTypes());
+        resp.setDateFormat(rows.getDateFormat());
         return resp;
     }
 
     @Override
-    public void startImportFromStoredFile(UUID jobId, ImportOption option) {
+    public ImportJob startImportFromStoredFile(UUID jobId, ImportOption option, ParseMode mode) {
         // find job record to get path
         ImportJob j = importJobRepository.findById(jobId).orElseThrow(() -> new RuntimeException("Job not found: " + jobId));
+        if ("UPLOADING".equals(j.getStatus())) throw new IllegalStateException("Upload not completed: " + jobId);
+        j.setImportOption(option);
+        if (reusePreviousImport(j)) return j;
         String path = j.getFilePath();
         try {
-            FileParser parser = selectParser(path);
-            ParseResult pr = parser.parse(path);
-            if (!pr.isHeaderValid()) throw new IllegalArgumentException("Invalid headers: " + pr.getMessage());
-            if (pr.isTooManyRows()) throw new IllegalArgumentException("Too many rows");
+            // Rows spilled by the preview, unless the upload changed since; no row cap either way
+            RowStream rows = RowSpill.open(jobId, path);
+            if (rows == null) {
+                // Missing or stale: the file is parsed again, and a stale spill is of no further use
+                RowSpill.delete(jobId);
+                rows = selectParser(path).stream(path, mode);
+            }
+            if (!rows.isHeaderValid()) {
+                rows.close();
+                throw new IllegalArgumentException("Invalid headers: " + rows.getMessage());
+            }
 
 
             // persist job status
@@ -73,9 +181,11 @@ public class ImportServiceImpl implements ImportService {
             importJobRepository.save(j);
 
 
-            // start async processing
-            processAsync(jobId, pr.getRows(), option);
+            // start async processing; it owns the stream from here
+            asyncProcessor.processAsync(jobId, rows, option);
+            return j;
         } catch (IOException ex) {
+            deleteSpill(jobId);
             j.setStatus("FAILED");
             j.setErrorFile(null);
             j.setCompletedAt(LocalDateTime.now());
@@ -84,111 +194,31 @@ public class ImportServiceImpl implements ImportService {
         }
     }
 
-    @Async("importTaskExecutor")
-    @Transactional
-    public void processAsync(UUID jobId, List<RowResult> rows, ImportOption option) {
-        ImportJob job = importJobRepository.findById(jobId).orElseThrow();
-        job.setStatus("RUNNING");
-        importJobRepository.save(job);
-
-        List<String[]> errorCsvRows = new ArrayList<>();
-        int success = 0;
-        int failed = 0;
-        int batchSize = 100;
-        List<Patient> toSave = new ArrayList<>();
+    /**
+     * An identical file already imported successfully with the same options leaves nothing to
+     * do: the job is completed as a reuse of that import instead of parsing and looking up every
+     * row again. The job itself is left out, as it is SUCCESS once it has been imported.
+     */
+    private boolean reusePreviousImport(ImportJob j) {
+        if (j.getContentHash() == null) return false;
+        Optional<ImportJob> previous = importJobRepository.findFirstByJobIdNotAndContentHashAndImportOptionAndStatusOrderByCompletedAtDesc(
+                j.getJobId(), j.getContentHash(), j.getImportOption(), "SUCCESS");
+        if (previous.isEmpty()) return false;
+
+        deleteSpill(j.getJobId());
+        ImportJob p = previous.get();
+        j.setReusedFromJobId(p.getReusedFromJobId() != null ? p.getReusedFromJobId() : p.getJobId());
+        j.setStatus("SUCCESS");
+        j.setCompletedAt(LocalDateTime.now());
+        importJobRepository.save(j);
+        return true;
+    }
 
+    private void deleteSpill(UUID jobId) {
         try {
-            for (int i = 0; i < rows.size(); i++) {
-                RowResult rr = rows.get(i);
-                if (!rr.getErrors().isEmpty()) {
-                    failed++;
-                    errorCsvRows.add(toErrorRow(i + 1, rr.getErrors(), rr));
-                    if (option == ImportOption.FAIL) {
-                        job.setStatus("FAILED");
-                        job.setCompletedAt(LocalDateTime.now());
-                        importJobRepository.save(job);
-                        writeErrors(jobId, errorCsvRows);
-                        return;
-                    }
-                    continue;
-                }
-                Optional<Patient> existing = patientRepository.findByNationalId(rr.getNationalId());
-                if (existing.isPresent()) {
-                    switch (option) {
-                        case SKIP:
-                            success++; // skipped considered success
-                            break;
-                        case UPDATE:
-                            Patient p = existing.get();
-                            applyRowToPatient(rr, p);
-                            toSave.add(p);
-                            break;
-                        case FAIL:
-                            failed++;
-                            errorCsvRows.add(toErrorRow(i + 1, List.of("Duplicate nationalId"), rr));
-                            job.setStatus("FAILED");
-                            job.setCompletedAt(LocalDateTime.now());
-                            importJobRepository.save(job);
-                            writeErrors(jobId, errorCsvRows);
-                            return;
-                    }
-                } else {
-                    Patient pNew = new Patient();
-                    applyRowToPatient(rr, pNew);
-                    toSave.add(pNew);
-                }
-                if (toSave.size() >= batchSize) {
-                    patientRepository.saveAll(toSave);
-// flush not available, but saveAll should persist
-                    success += toSave.size();
-                    toSave.clear();
-                    job.setStatus("RUNNING");
-                    importJobRepository.save(job);
-                }
-            }
-            if (!toSave.isEmpty()) {
-                patientRepository.saveAll(toSave);
-                success += toSave.size();
-            }
-
-            job.setStatus(errorCsvRows.isEmpty() ? "SUCCESS" : "PARTIAL_FAILED");
-            job.setCompletedAt(LocalDateTime.now());
-            if (!errorCsvRows.isEmpty()) {
-                String errorsPath = writeErrors(jobId, errorCsvRows);
-                job.setErrorFile(errorsPath);
-            }
-            importJobRepository.save(job);
-        } catch (Exception ex) {
-            job.setStatus("FAILED");
-            job.setCompletedAt(LocalDateTime.now());
-            importJobRepository.save(job);
-        }
-    }
-    private String writeErrors(UUID jobId, List<String[]> errorRows) throws IOException {
-        Files.createDirectories(errorReportDir);
-        Path out = errorReportDir.resolve("errors-" + jobId + ".csv");
-        try (BufferedWriter writer = Files.newBufferedWriter(out);
-             CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("row", "errors", "firstName","lastName","email","phone","nationalId","dob"))) {
-            for (String[] row : errorRows) printer.printRecord((Object[]) row);
+            RowSpill.delete(jobId);
+        } catch (IOException ex) {
+            log.warn("Failed to delete row spill of job {}", jobId, ex);
         }
-        return out.toAbsolutePath().toString();
-    }
-    private String[] toErrorRow(int rowNumber, List<String> errs, RowResult rr) {
-        return new String[]{
-                String.valueOf(rowNumber),
-                String.join("; ", errs),
-                rr.getFirstName(), rr.getLastName(), rr.getEmail(), rr.getPhone(), rr.getNationalId(),
-                rr.getDob() == null ? "" : rr.getDob().toString()
-        };
-    }
-
-
-    private void applyRowToPatient(RowResult r, Patient p) {
-        p.setFirstName(r.getFirstName());
-        p.setLastName(r.getLastName());
-        p.setEmail(r.getEmail());
-        p.setPhone(r.getPhone());
-        p.setNationalId(r.getNationalId());
-        p.setDob(r.getDob());
     }
 }
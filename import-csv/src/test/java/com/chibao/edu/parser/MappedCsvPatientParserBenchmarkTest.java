@@ -0,0 +1,77 @@
+package com.chibao.edu.parser;
+
+import com.chibao.edu.common.FileParser;
+import com.chibao.edu.common.RowStream;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Memory-mapped tokenizer vs Commons CSV, parsing the same file to RowResults end to end.
+ * Run with {@code mvn test -Dtest=MappedCsvPatientParserBenchmarkTest -Dbenchmark=true}.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class MappedCsvPatientParserBenchmarkTest {
+
+    private static final int ROWS = 200_000;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mappedParser_shouldOutperformCommonsCsv() throws IOException {
+        // Arrange
+        Path file = generateCsv();
+        CsvPatientParser commons = new CsvPatientParser(null);
+        MappedCsvPatientParser mapped = new MappedCsvPatientParser(null);
+
+        // Act
+        double commonsMillis = measure(commons, file);
+        double mappedMillis = measure(mapped, file);
+
+        // Assert
+        log.info("Commons CSV: {} ms/op, mapped: {} ms/op, speedup {}x ({} rows)",
+                String.format("%.1f", commonsMillis), String.format("%.1f", mappedMillis),
+                String.format("%.1f", commonsMillis / mappedMillis), ROWS);
+        assertThat(mappedMillis).isLessThan(commonsMillis);
+    }
+
+    private double measure(FileParser parser, Path file) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) parse(parser, file);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) parse(parser, file);
+        return (System.nanoTime() - start) / 1_000_000.0 / MEASURED_ITERATIONS;
+    }
+
+    private void parse(FileParser parser, Path file) throws IOException {
+        int rows = 0;
+        try (RowStream stream = parser.stream(file.toString())) {
+            for (; stream.hasNext(); stream.next()) rows++;
+        }
+        assertThat(rows).isEqualTo(ROWS);
+    }
+
+    private Path generateCsv() throws IOException {
+        StringBuilder sb = new StringBuilder("firstName,lastName,email,phone,nationalId,dob,address,notes\n");
+        for (int i = 0; i < ROWS; i++) {
+            sb.append("First").append(i).append(",Last").append(i).append(',')
+                    .append("user").append(i).append("@example.com,0123456789,N").append(i).append(",1990-01-01,")
+                    .append('"').append(i).append(" Main St, Springfield\",\"said \"\"hello\"\"\"\n");
+        }
+        Path file = dir.resolve("patients.csv");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,80 @@
+package com.chibao.edu.parser;
+
+import com.chibao.edu.common.FileParser;
+import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.RowStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedCsvPatientParserTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void stream_shouldMatchCommonsCsvOnQuotedFieldsAndLineEndings() throws IOException {
+        // Arrange
+        // Quoted separators, escaped quotes, a quoted line break, CRLF and LF mixed, multi-byte
+        // UTF-8, and no line break after the last record
+        Path file = write("firstName,lastName,email,phone,nationalId,dob\r\n"
+                + "\"Doe, John\",Smith,john@example.com,0123456789,N001,1990-01-31\r\n"
+                + "\"Jane \"\"JJ\"\"\",Roe,jane@example.com,0123456789,N002,31/01/1990\n"
+                + "\"Multi\nline\",Lee,lee@example.com,\"012\"\"345\",N003,\r\n"
+                + "Anna,,anna@example,0123456789,N004,not-a-date\n"
+                + "Émile,Zoë,emile@example.com,0123456789,N005,1985-06-15");
+
+        // Act
+        List<RowResult> commons = readAll(new CsvPatientParser(null), file);
+        List<RowResult> mapped = readAll(new MappedCsvPatientParser(null), file);
+
+        // Assert
+        assertThat(mapped).hasSize(5);
+        assertThat(mapped).isEqualTo(commons);
+        assertThat(mapped.get(0).getFirstName()).isEqualTo("Doe, John");
+        assertThat(mapped.get(1).getFirstName()).isEqualTo("Jane \"JJ\"");
+        assertThat(mapped.get(2).getFirstName()).isEqualTo("Multi\nline");
+        assertThat(mapped.get(4).getNationalId()).isEqualTo("N005");
+    }
+
+    @Test
+    void stream_shouldMatchCommonsCsvWithColumnsInAnotherOrder() throws IOException {
+        // Arrange
+        Path file = write("""
+                nationalId,dob,email,firstName,lastName,phone,extra
+                N001,1990-01-01,a@example.com,Ann,Lee,0123456789,"ignored, quoted"
+                N002,,b@example.com,Ben,,0123456789,
+                """);
+
+        // Act
+        List<RowResult> commons = readAll(new CsvPatientParser(null), file);
+        List<RowResult> mapped = readAll(new MappedCsvPatientParser(null), file);
+
+        // Assert
+        assertThat(mapped).hasSize(2);
+        assertThat(mapped).isEqualTo(commons);
+    }
+
+    private Path write(String csv) throws IOException {
+        Path file = dir.resolve("patients.csv");
+        Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<RowResult> readAll(FileParser parser, Path file) throws IOException {
+        List<RowResult> rows = new ArrayList<>();
+        try (RowStream stream = parser.stream(file.toString())) {
+            assertThat(stream.isHeaderValid()).isTrue();
+            stream.forEachRemaining(rows::add);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,159 @@
+package com.chibao.edu.parser;
+
+import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.RowStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelCsvParserTest {
+
+    private static final String HEADER = "firstName,lastName,email,phone,nationalId,dob\n";
+
+    @TempDir
+    Path dir;
+
+    private ForkJoinPool pool;
+    private ParallelCsvParser parser;
+
+    @BeforeEach
+    void setUp() {
+        pool = new ForkJoinPool(4);
+        parser = new ParallelCsvParser(pool);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void split_shouldNotEndASegmentOnAQuotedNewline() throws IOException {
+        // Arrange
+        Path file = write(HEADER + quotedNewlineRows(20));
+        long dataStart = HEADER.length();
+
+        for (int segmentSize = 8; segmentSize <= 96; segmentSize++) {
+            parser.segmentSize = DataSize.ofBytes(segmentSize);
+
+            // Act
+            long[] bounds;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                bounds = parser.split(channel, dataStart, channel.size());
+            }
+
+            // Assert
+            // Every size from 8 to 96 bytes puts a nominal split on each offset of a row, the
+            // byte after the quoted line feed included
+            assertThat(recordStarts(file, dataStart))
+                    .as("segment size %d", segmentSize)
+                    .containsAll(boundaries(bounds));
+        }
+    }
+
+    @Test
+    void stream_shouldMatchCommonsCsvWhenRecordsSpanSegments() throws IOException {
+        // Arrange
+        Path file = write(HEADER + quotedNewlineRows(50));
+        parser.segmentSize = DataSize.ofBytes(40);
+
+        // Act
+        List<RowResult> parallel = readAll(file);
+
+        // Assert
+        assertThat(parallel).hasSize(50);
+        assertThat(parallel).isEqualTo(commons(file));
+        assertThat(parallel.get(7).getLastName()).isEqualTo("Line\n7");
+    }
+
+    @Test
+    void stream_shouldFallBackToSequentialWhenAStrayQuoteBreaksTheSplit() throws IOException {
+        // Arrange
+        // The quote inside the unquoted "O"Brien" is a literal, but it flips the quote parity of
+        // every segment after it, so later splits land inside records
+        Path file = write(HEADER + "Sean,O\"Brien,sean@example.com,0123456789,N000,1990-01-01\n"
+                + quotedNewlineRows(50));
+        parser.segmentSize = DataSize.ofBytes(40);
+
+        long[] bounds;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            bounds = parser.split(channel, HEADER.length(), channel.size());
+        }
+        assertThat(recordStarts(file, HEADER.length()).containsAll(boundaries(bounds)))
+                .as("split misaligned by the stray quote")
+                .isFalse();
+
+        // Act
+        List<RowResult> parallel = readAll(file);
+
+        // Assert
+        assertThat(parallel).hasSize(51);
+        assertThat(parallel).isEqualTo(commons(file));
+        assertThat(parallel.get(0).getLastName()).isEqualTo("O\"Brien");
+    }
+
+    private Path write(String csv) throws IOException {
+        Path file = dir.resolve("patients.csv");
+        Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String quotedNewlineRows(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("Name").append(i).append(",\"Line\n").append(i).append("\",user").append(i)
+                    .append("@example.com,0123456789,N").append(i).append(",1990-01-01\n");
+        }
+        return sb.toString();
+    }
+
+    /** Offsets where a sequential scan starts a record. */
+    private static Set<Long> recordStarts(Path file, long dataStart) throws IOException {
+        Set<Long> starts = new HashSet<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(channel, dataStart, channel.size());
+            starts.add(tokenizer.position());
+            while (tokenizer.next()) starts.add(tokenizer.position());
+        }
+        return starts;
+    }
+
+    private static List<Long> boundaries(long[] bounds) {
+        List<Long> list = new ArrayList<>();
+        for (long bound : bounds) list.add(bound);
+        return list;
+    }
+
+    private List<RowResult> readAll(Path file) throws IOException {
+        List<RowResult> rows = new ArrayList<>();
+        try (RowStream stream = parser.stream(file.toString())) {
+            assertThat(stream.isHeaderValid()).isTrue();
+            stream.forEachRemaining(rows::add);
+        }
+        return rows;
+    }
+
+    private static List<RowResult> commons(Path file) throws IOException {
+        List<RowResult> rows = new ArrayList<>();
+        try (RowStream stream = new CsvPatientParser(null).stream(file.toString())) {
+            stream.forEachRemaining(rows::add);
+        }
+        return rows;
+    }
+}
@@ -1,5 +1,6 @@
 package com.chibao.edu.async.processor;
 
+import com.chibao.edu.common.ErrorSink;
 import com.chibao.edu.common.ImportJob;
 import com.chibao.edu.common.ImportOption;
 import com.chibao.edu.common.RowResult;
@@ -7,26 +8,23 @@ import com.chibao.edu.entity.Patient;
 import com.chibao.edu.repository.ImportJobRepository;
 import com.chibao.edu.repository.PatientRepository;
 import lombok.RequiredArgsConstructor;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.UUID;
 
 @Component
 @RequiredArgsConstructor
 public class ImportAsyncProcessorCSV {
+    private static final int BATCH_SIZE = 100;
     private final PatientRepository patientRepository;
     private final ImportJobRepository importJobRepository;
     Path errorReportDir = Paths.get(System.getProperty("java.io.tmpdir"), "excel-import-errors");
@@ -46,29 +44,41 @@ public class ImportAsyncProcessorCSV {
         ImportJob job = importJobRepository.findById(jobId).orElseThrow();
         initializeJob(job);
 
-        List<String[]> errorCsvRows = new ArrayList<>();
-        List<Patient> batch = new ArrayList<>();
+        // By national id: a row repeating one in the block updates the queued patient, not a second copy
+        Map<String, Patient> batch = new LinkedHashMap<>();
         int success = 0;
 
-        try {
+        try (ErrorSink<String[]> errors = ErrorSink.csv(errorReportDir.resolve("errors-" + jobId + ".csv"),
+                "row", "errors", "firstName", "lastName", "email", "phone", "nationalId", "dob")) {
+            Map<String, Patient> existingByNationalId = Map.of();
             for (int i = 0; i < rows.size(); i++) {
                 RowResult rr = rows.get(i);
+                if (i % BATCH_SIZE == 0) {
+                    // The previous block is saved first, so the lookup sees it
+                    if (!batch.isEmpty()) success += flushBatch(batch, job);
+                    // The patients already stored for the block's rows, in one query instead of one per row
+                    List<RowResult> block = rows.subList(i, Math.min(i + BATCH_SIZE, rows.size()));
+                    existingByNationalId = patientRepository.findExistingByNationalId(
+                            block.stream().map(RowResult::getNationalId).toList());
+                }
 
-                if (handleRowErrors(rr, errorCsvRows, i, option, job, jobId)) {
+                if (handleRowErrors(rr, errors, i, option, job)) {
+                    if (option == ImportOption.FAIL) return;
                     continue;
                 }
 
-                if (processExistingPatient(rr, option, errorCsvRows, i, batch, job, jobId)) {
+                if (processExistingPatient(rr, option, errors, i, batch, job, existingByNationalId)) {
                     success++;
-                } else if (rr.getErrors().isEmpty() && !existsByNationalId(rr.getNationalId())) {
-                    batch.add(mapToPatient(rr));
+                } else {
+                    Patient p = mapToPatient(rr);
+                    batch.put(rr.getNationalId(), p);
+                    // A later row of the same block with this id is a duplicate of it
+                    existingByNationalId.put(rr.getNationalId(), p);
                 }
-
-                success += maybeFlushBatch(batch, job);
             }
 
             success += flushRemaining(batch);
-            finalizeJob(job, jobId, errorCsvRows);
+            finalizeJob(job, errors);
 
         } catch (Exception ex) {
             markJobFailed(job);
@@ -82,60 +92,51 @@ public class ImportAsyncProcessorCSV {
         importJobRepository.save(job);
     }
 
-    private boolean handleRowErrors(RowResult rr, List<String[]> errorCsvRows, int rowIndex,
-                                    ImportOption option, ImportJob job, UUID jobId) {
+    private boolean handleRowErrors(RowResult rr, ErrorSink<String[]> errors, int rowIndex,
+                                    ImportOption option, ImportJob job) throws IOException {
         if (rr.getErrors().isEmpty()) return false;
 
-        errorCsvRows.add(toErrorRow(rowIndex + 1, rr.getErrors(), rr));
+        errors.add(toErrorRow(rowIndex + 1, rr.getErrors(), rr));
         if (option == ImportOption.FAIL) {
-            failJob(job, jobId, errorCsvRows);
+            failJob(job, errors);
         }
         return true;
     }
 
     private boolean processExistingPatient(RowResult rr, ImportOption option,
-                                           List<String[]> errorCsvRows, int rowIndex,
-                                           List<Patient> batch, ImportJob job, UUID jobId) {
-        Optional<Patient> existing = patientRepository.findByNationalId(rr.getNationalId());
-        if (existing.isEmpty()) return false;
+                                           ErrorSink<String[]> errors, int rowIndex,
+                                           Map<String, Patient> batch, ImportJob job,
+                                           Map<String, Patient> existingByNationalId) throws IOException {
+        Patient existing = existingByNationalId.get(rr.getNationalId());
+        if (existing == null) return false;
 
         switch (option) {
             case SKIP:
                 return true; // skipped considered success
             case UPDATE:
-                applyRowToPatient(rr, existing.get());
-                batch.add(existing.get());
+                applyRowToPatient(rr, existing);
+                batch.put(rr.getNationalId(), existing);
                 return true;
             case FAIL:
-                errorCsvRows.add(toErrorRow(rowIndex + 1, List.of("Duplicate nationalId"), rr));
-                failJob(job, jobId, errorCsvRows);
-                return false;
+                errors.add(toErrorRow(rowIndex + 1, List.of("Duplicate nationalId"), rr));
+                failJob(job, errors);
+                throw new RuntimeException("Import failed due to duplicate ID");
             default:
                 return false;
         }
     }
 
-    private boolean existsByNationalId(String nationalId) {
-        return patientRepository.findByNationalId(nationalId).isPresent();
-    }
-
-    private int maybeFlushBatch(List<Patient> batch, ImportJob job) {
-        final int batchSize = 100;
-        if (batch.size() < batchSize) return 0;
-        return flushBatch(batch, job);
-    }
-
-    private int flushBatch(List<Patient> batch, ImportJob job) {
-        patientRepository.saveAll(batch);
+    private int flushBatch(Map<String, Patient> batch, ImportJob job) {
+        patientRepository.saveAll(batch.values());
         int size = batch.size();
         batch.clear();
         updateJobProgress(job);
         return size;
     }
 
-    private int flushRemaining(List<Patient> batch) {
+    private int flushRemaining(Map<String, Patient> batch) {
         if (batch.isEmpty()) return 0;
-        patientRepository.saveAll(batch);
+        patientRepository.saveAll(batch.values());
         int size = batch.size();
         batch.clear();
         return size;
@@ -146,22 +147,24 @@ public class ImportAsyncProcessorCSV {
         importJobRepository.save(job);
     }
 
-    private void failJob(ImportJob job, UUID jobId, List<String[]> errorCsvRows) {
+    private void failJob(ImportJob job, ErrorSink<String[]> errors) {
         job.setStatus("FAILED");
         job.setCompletedAt(LocalDateTime.now());
-        importJobRepository.save(job);
         try {
-            writeErrors(jobId, errorCsvRows);
+            errors.close();
+            if (!errors.isEmpty()) job.setErrorFile(errors.path());
         } catch (IOException ignored) {
         }
+        importJobRepository.save(job);
     }
 
-    private void finalizeJob(ImportJob job, UUID jobId, List<String[]> errorCsvRows) throws IOException {
-        job.setStatus(errorCsvRows.isEmpty() ? "SUCCESS" : "PARTIAL_FAILED");
+    private void finalizeJob(ImportJob job, ErrorSink<String[]> errors) throws IOException {
+        // Waits for the report to be fully written
+        errors.close();
+        job.setStatus(errors.isEmpty() ? "SUCCESS" : "PARTIAL_FAILED");
         job.setCompletedAt(LocalDateTime.now());
-        if (!errorCsvRows.isEmpty()) {
-            String errorsPath = writeErrors(jobId, errorCsvRows);
-            job.setErrorFile(errorsPath);
+        if (!errors.isEmpty()) {
+            job.setErrorFile(errors.path());
         }
         importJobRepository.save(job);
     }
@@ -187,18 +190,6 @@ public class ImportAsyncProcessorCSV {
         p.setDob(r.getDob());
     }
 
-    private String writeErrors(UUID jobId, List<String[]> errorRows) throws IOException {
-        Files.createDirectories(errorReportDir);
-        Path out = errorReportDir.resolve("errors-" + jobId + ".csv");
-        try (BufferedWriter writer = Files.newBufferedWriter(out);
-             CSVPrinter printer = new CSVPrinter(writer,
-                     CSVFormat.DEFAULT.withHeader("row", "errors", "firstName", "lastName",
-                             "email", "phone", "nationalId", "dob"))) {
-            for (String[] row : errorRows) printer.printRecord((Object[]) row);
-        }
-        return out.toAbsolutePath().toString();
-    }
-
     private String[] toErrorRow(int rowNumber, List<String> errs, RowResult rr) {
         return new String[]{
                 String.valueOf(rowNumber),
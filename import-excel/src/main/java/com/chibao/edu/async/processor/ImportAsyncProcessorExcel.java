@@ -1,20 +1,25 @@
 package com.chibao.edu.async.processor;
 
+import com.chibao.edu.common.ErrorSink;
 import com.chibao.edu.common.ImportJob;
 import com.chibao.edu.common.ImportOption;
 import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.RowSpill;
+import com.chibao.edu.common.SheetProgress;
 import com.chibao.edu.entity.Patient;
+import com.chibao.edu.parser.impl.WorkbookSheets;
 import com.chibao.edu.repository.ImportJobRepository;
 import com.chibao.edu.repository.PatientRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.Closeable;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -22,13 +27,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.UUID;
 
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class ImportAsyncProcessorExcel {
+    private static final int REPORT_ROW_WINDOW = 100;
+    private static final int BATCH_SIZE = 100;
 
     private final PatientRepository patientRepository;
     private final ImportJobRepository importJobRepository;
@@ -36,66 +46,93 @@ public class ImportAsyncProcessorExcel {
 
     @Async("importTaskExecutor")
     @Transactional
-    public void processAsync(UUID jobId, List<RowResult> rows, ImportOption option) {
+    public void processAsync(UUID jobId, RowSpill.Reader rows, ImportOption option) {
+        importRows(jobId, rows, option, null);
+    }
+
+    // Every sheet of the workbook; the job's sheet list is the live progress of the reader
+    @Async("importTaskExecutor")
+    @Transactional
+    public void processAsync(UUID jobId, WorkbookSheets rows, ImportOption option) {
+        importRows(jobId, rows, option, rows.getSheets());
+    }
+
+    private <R extends Iterator<RowResult> & Closeable> void importRows(UUID jobId, R rows, ImportOption option,
+                                                                        List<SheetProgress> sheets) {
         ImportJob job = importJobRepository.findById(jobId).orElseThrow();
+        if (sheets != null) job.setSheets(sheets);
         initializeJob(job);
 
-        List<RowResult> errorRows = new ArrayList<>();
-        List<Patient> batch = new ArrayList<>();
-
-        try {
-            for (RowResult rr : rows) {
-                if (rr.getErrors().isEmpty()) {
-                    processRow(rr, option, batch, errorRows, job);
-                } else {
-                    errorRows.add(rr);
-                    if (option == ImportOption.FAIL) {
-                        failJob(job, jobId, errorRows);
-                        return;
+        // By national id: a row repeating one in the block updates the queued patient, not a second copy
+        Map<String, Patient> batch = new LinkedHashMap<>();
+
+        try (rows; ErrorSink<RowResult> errors = new ErrorSink<>(
+                errorReportDir.resolve("errors-" + jobId + ".xlsx"), XlsxErrorReport::new)) {
+            List<RowResult> block = new ArrayList<>(BATCH_SIZE);
+            while (rows.hasNext()) {
+                block.add(rows.next());
+                if (block.size() < BATCH_SIZE && rows.hasNext()) continue;
+
+                // The patients already stored for the block's rows, in one query instead of one per row
+                Map<String, Patient> existingByNationalId = patientRepository.findExistingByNationalId(
+                        block.stream().map(RowResult::getNationalId).toList());
+                for (RowResult rr : block) {
+                    if (rr.getErrors().isEmpty()) {
+                        processRow(rr, option, batch, errors, job, existingByNationalId);
+                    } else {
+                        errors.add(rr);
+                        if (option == ImportOption.FAIL) {
+                            failJob(job, errors);
+                            return;
+                        }
                     }
                 }
+                block.clear();
 
-                if (batch.size() >= 100) {
-                    flushBatch(batch, job);
-                }
+                flushBatch(batch, job);
             }
 
-            flushBatch(batch, job);
-            finalizeJob(job, jobId, errorRows);
+            finalizeJob(job, errors);
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
             markJobFailed(job);
+        } finally {
+            // Also drops a first-sheet spill left by the preview of a whole-workbook import
+            deleteSpill(jobId);
         }
     }
 
     /* ---------- Helper Methods ---------- */
 
-    private void processRow(RowResult rr, ImportOption option, List<Patient> batch,
-                            List<RowResult> errorRows, ImportJob job) {
-        Optional<Patient> existing = patientRepository.findByNationalId(rr.getNationalId());
+    private void processRow(RowResult rr, ImportOption option, Map<String, Patient> batch, ErrorSink<RowResult> errors,
+                            ImportJob job, Map<String, Patient> existingByNationalId) throws IOException {
+        Patient existing = existingByNationalId.get(rr.getNationalId());
 
-        if (existing.isPresent()) {
-            handleDuplicate(rr, existing.get(), option, batch, errorRows, job);
+        if (existing != null) {
+            handleDuplicate(rr, existing, option, batch, errors, job);
         } else {
-            batch.add(mapToPatient(rr));
+            Patient p = mapToPatient(rr);
+            batch.put(rr.getNationalId(), p);
+            // A later row of the same block with this id is a duplicate of it
+            existingByNationalId.put(rr.getNationalId(), p);
         }
     }
 
     private void handleDuplicate(RowResult rr, Patient existing, ImportOption option,
-                                 List<Patient> batch, List<RowResult> errorRows, ImportJob job) {
+                                 Map<String, Patient> batch, ErrorSink<RowResult> errors, ImportJob job) throws IOException {
         switch (option) {
             case SKIP:
                 // Do nothing
                 break;
             case UPDATE:
                 applyRowToPatient(rr, existing);
-                batch.add(existing);
+                batch.put(rr.getNationalId(), existing);
                 break;
             case FAIL:
                 rr.getErrors().add("Duplicate nationalId");
-                errorRows.add(rr);
-                failJob(job, job.getJobId(), errorRows);
+                errors.add(rr);
+                failJob(job, errors);
                 throw new RuntimeException("Import failed due to duplicate ID");
         }
     }
@@ -105,9 +142,9 @@ public class ImportAsyncProcessorExcel {
         importJobRepository.save(job);
     }
 
-    private void flushBatch(List<Patient> batch, ImportJob job) {
+    private void flushBatch(Map<String, Patient> batch, ImportJob job) {
         if (batch.isEmpty()) return;
-        patientRepository.saveAll(batch);
+        patientRepository.saveAll(batch.values());
         batch.clear();
         updateJobProgress(job);
     }
@@ -117,29 +154,39 @@ public class ImportAsyncProcessorExcel {
         importJobRepository.save(job);
     }
 
-    private void failJob(ImportJob job, UUID jobId, List<RowResult> errorRows) {
+    private void failJob(ImportJob job, ErrorSink<RowResult> errors) {
         job.setStatus("FAILED");
         job.setCompletedAt(LocalDateTime.now());
-        importJobRepository.save(job);
 
         try {
-            writeErrors(jobId, errorRows);
+            errors.close();
+            if (!errors.isEmpty()) job.setErrorFile(errors.path());
         } catch (IOException ignored) {
         }
+        importJobRepository.save(job);
     }
 
-    private void finalizeJob(ImportJob job, UUID jobId, List<RowResult> errorRows) throws IOException {
-        job.setStatus(errorRows.isEmpty() ? "SUCCESS" : "PARTIAL_FAILED");
+    private void finalizeJob(ImportJob job, ErrorSink<RowResult> errors) throws IOException {
+        // Waits for the report to be fully written
+        errors.close();
+        job.setStatus(errors.isEmpty() ? "SUCCESS" : "PARTIAL_FAILED");
         job.setCompletedAt(LocalDateTime.now());
 
-        if (!errorRows.isEmpty()) {
-            String errorPath = writeErrors(jobId, errorRows);
-            job.setErrorFile(errorPath);
+        if (!errors.isEmpty()) {
+            job.setErrorFile(errors.path());
         }
 
         importJobRepository.save(job);
     }
 
+    private void deleteSpill(UUID jobId) {
+        try {
+            RowSpill.delete(jobId);
+        } catch (IOException e) {
+            log.warn("Failed to delete row spill of job {}", jobId, e);
+        }
+    }
+
     private void markJobFailed(ImportJob job) {
         job.setStatus("FAILED");
         job.setCompletedAt(LocalDateTime.now());
@@ -161,43 +208,68 @@ public class ImportAsyncProcessorExcel {
         p.setDob(r.getDob());
     }
 
-    private String writeErrors(UUID jobId, List<RowResult> errorRows) throws IOException {
-        Files.createDirectories(errorReportDir);
-        Path out = errorReportDir.resolve("errors-" + jobId + ".xlsx");
-
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("Errors");
+    /**
+     * Writes the report through SXSSF: only the last {@link #REPORT_ROW_WINDOW} rows are kept in
+     * memory, the rest are flushed to a temp file. Column widths come from the longest value
+     * written to each column, since autosizing would need every cell in memory.
+     */
+    private static final class XlsxErrorReport implements ErrorSink.RowWriter<RowResult> {
+        private static final String[] HEADERS =
+                {"Sheet", "Row", "Errors", "First Name", "Last Name", "Email", "Phone", "National ID", "DOB"};
+
+        private final Path out;
+        private final SXSSFWorkbook workbook = new SXSSFWorkbook(REPORT_ROW_WINDOW);
+        private final Sheet sheet = workbook.createSheet("Errors");
+        private final int[] widths = new int[HEADERS.length];
+        private int rowIndex = 1;
+
+        private XlsxErrorReport(Path out) throws IOException {
+            Files.createDirectories(out.getParent());
+            this.out = out;
 
             // Header row
             Row header = sheet.createRow(0);
-            String[] headers = {"Row", "Errors", "First Name", "Last Name", "Email", "Phone", "National ID", "DOB"};
-            for (int i = 0; i < headers.length; i++) {
-                header.createCell(i).setCellValue(headers[i]);
+            for (int i = 0; i < HEADERS.length; i++) {
+                setCell(header, i, HEADERS[i]);
             }
+        }
 
-            int rowIndex = 1;
-            for (RowResult rr : errorRows) {
-                Row row = sheet.createRow(rowIndex);
-                row.createCell(0).setCellValue(rowIndex);
-                row.createCell(1).setCellValue(String.join("; ", rr.getErrors()));
-                row.createCell(2).setCellValue(rr.getFirstName());
-                row.createCell(3).setCellValue(rr.getLastName());
-                row.createCell(4).setCellValue(rr.getEmail());
-                row.createCell(5).setCellValue(rr.getPhone());
-                row.createCell(6).setCellValue(rr.getNationalId());
-                row.createCell(7).setCellValue(rr.getDob() != null ? rr.getDob().toString() : "");
-                rowIndex++;
-            }
+        @Override
+        public void write(RowResult rr) {
+            Row row = sheet.createRow(rowIndex);
+            setCell(row, 0, rr.getSheet());
+            row.createCell(1).setCellValue(rr.getRowNum());
+            widths[1] = Math.max(widths[1], String.valueOf(rr.getRowNum()).length());
+            setCell(row, 2, String.join("; ", rr.getErrors()));
+            setCell(row, 3, rr.getFirstName());
+            setCell(row, 4, rr.getLastName());
+            setCell(row, 5, rr.getEmail());
+            setCell(row, 6, rr.getPhone());
+            setCell(row, 7, rr.getNationalId());
+            setCell(row, 8, rr.getDob() != null ? rr.getDob().toString() : null);
+            rowIndex++;
+        }
 
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
-            }
+        @Override
+        public void close() throws IOException {
+            try (workbook) {
+                // Widths are in 1/256ths of a character, with a little padding and Excel's 255 character cap
+                for (int i = 0; i < HEADERS.length; i++) {
+                    sheet.setColumnWidth(i, Math.min(widths[i] + 2, 255) * 256);
+                }
 
-            try (FileOutputStream fos = new FileOutputStream(out.toFile())) {
-                workbook.write(fos);
+                try (FileOutputStream fos = new FileOutputStream(out.toFile())) {
+                    workbook.write(fos);
+                }
+            } finally {
+                workbook.dispose();
             }
         }
 
-        return out.toAbsolutePath().toString();
+        private void setCell(Row row, int col, String value) {
+            String text = value != null ? value : "";
+            row.createCell(col).setCellValue(text);
+            widths[col] = Math.max(widths[col], text.length());
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,20 @@
 package com.chibao.edu.common;
 
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.OrderColumn;
 import jakarta.persistence.Table;
 import lombok.Data;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 @Entity
@@ -20,4 +29,17 @@ public class ImportJob {
     private String errorFile;
     private LocalDateTime createdAt;
     private LocalDateTime completedAt;
+    // SHA-256 of the upload; with the options it identifies an import that already ran
+    private String contentHash;
+    @Enumerated(EnumType.STRING)
+    private ImportOption importOption;
+    @Enumerated(EnumType.STRING)
+    private SheetMode sheetMode;
+    // Set when the job reused an earlier job's result instead of importing again
+    private UUID reusedFromJobId;
+    // One entry per sheet when the whole workbook is imported, empty otherwise
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "import_job_sheet", joinColumns = @JoinColumn(name = "job_id"))
+    @OrderColumn(name = "sheet_index")
+    private List<SheetProgress> sheets = new ArrayList<>();
 }
\ No newline at end of file
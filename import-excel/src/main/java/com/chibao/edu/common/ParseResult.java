@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 
 import java.util.List;
+import java.util.Map;
 
 @Data
 @AllArgsConstructor
@@ -12,7 +13,13 @@ public class ParseResult {
     private List<RowResult> rows;
     private String message;
     private boolean tooManyRows;
+    // Filled in by parsers that profile their columns; null otherwise
+    private Map<String, String> columnTypes;
+    private String dateFormat;
 
+    public ParseResult(boolean headerValid, List<RowResult> rows, String message, boolean tooManyRows) {
+        this(headerValid, rows, message, tooManyRows, null, null);
+    }
 
     public static ParseResult error(String message) {
         return new ParseResult(false, List.of(), message, false);
@@ -15,4 +15,7 @@ public class RowResult {
     private String nationalId;
     private LocalDate dob;
     private List<String> errors = new ArrayList<>();
+    // Where the row came from: the sheet (whole-workbook imports only) and its 1-based row number
+    private String sheet;
+    private int rowNum;
 }
\ No newline at end of file
@@ -0,0 +1,440 @@
+package com.chibao.edu.common;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Parsed rows of a job's upload, kept in {@link #SPILL_DIR} under the job's id so the import does
+ * not parse the file a second time.
+ * <p>
+ * The preview pass writes every validated row here through a {@link Writer}. The start step
+ * then reads them back with {@link #open(UUID, String)}, which returns {@code null} when there is no
+ * usable spill: none was written, it was cut short, it has an older layout, or the upload's size
+ * or modification time no longer match, in which case the caller parses the file again.
+ * <p>
+ * Layout: the rows, then a trailer (source size and mtime, row count, column profile), then the
+ * trailer's offset and a magic number. The trailer is written last, so a half-written spill is
+ * never mistaken for a complete one.
+ * <p>
+ * The import deletes its job's spill when it ends. Spills of previews that are never started are
+ * left for {@link #deleteOlderThan(Duration)}.
+ * <p>
+ * Rows are length-prefixed with unsigned varints. Names and error messages repeat a lot, so they
+ * are dictionary-encoded as the rows go: the first occurrence of a value is written out and given
+ * the next id, later ones are just the id. Dates are stored as epoch days and sheet row numbers
+ * as the step from the previous row, so a row costs little more than the bytes of its unique
+ * values. The reader decodes straight from the mapped file.
+ */
+public final class RowSpill {
+    private static final int MAGIC = 0x524F5733; // "ROW3"
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    // Dictionary-encoded string tags; any larger tag is TAG_REF + id
+    private static final int TAG_NULL = 0;
+    private static final int TAG_LITERAL = 1;
+    private static final int TAG_DEFINE = 2;
+    private static final int TAG_REF = 3;
+    private static final int MAX_DICTIONARY_SIZE = 4096;
+    private static final int MAX_DICTIONARY_VALUE = 64;
+
+    private static final Path SPILL_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "import-spill");
+    private static final String SUFFIX = ".rows";
+
+    private RowSpill() {
+    }
+
+    public static Path pathFor(UUID jobId) {
+        return SPILL_DIR.resolve(jobId + SUFFIX);
+    }
+
+    /** Starts a spill for {@code sourcePath}; nothing is visible until {@link Writer#commit}. */
+    public static Writer create(UUID jobId, String sourcePath) throws IOException {
+        return new Writer(Path.of(sourcePath), pathFor(jobId));
+    }
+
+    /** @return the spilled rows, or {@code null} when the file has to be parsed again */
+    public static Reader open(UUID jobId, String sourcePath) throws IOException {
+        Path spill = pathFor(jobId);
+        if (!Files.exists(spill)) return null;
+
+        FileChannel channel = FileChannel.open(spill, StandardOpenOption.READ);
+        try {
+            Reader reader = Reader.open(channel, Path.of(sourcePath));
+            if (reader == null) channel.close();
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static void delete(UUID jobId) throws IOException {
+        Files.deleteIfExists(pathFor(jobId));
+    }
+
+    /**
+     * Deletes every spill, committed or not, last written more than {@code age} ago.
+     *
+     * @return how many were deleted
+     */
+    public static int deleteOlderThan(Duration age) throws IOException {
+        if (!Files.isDirectory(SPILL_DIR)) return 0;
+
+        long cutoff = System.currentTimeMillis() - age.toMillis();
+        int deleted = 0;
+        try (DirectoryStream<Path> spills = Files.newDirectoryStream(SPILL_DIR)) {
+            for (Path spill : spills) {
+                try {
+                    if (Files.getLastModifiedTime(spill).toMillis() < cutoff && Files.deleteIfExists(spill)) deleted++;
+                } catch (NoSuchFileException e) {
+                    // Deleted by its import meanwhile
+                }
+            }
+        }
+        return deleted;
+    }
+
+    public static final class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final BasicFileAttributes source;
+        private final Output out;
+        private final Dictionary firstNames = new Dictionary();
+        private final Dictionary lastNames = new Dictionary();
+        private final Dictionary errors = new Dictionary();
+        private long rows;
+        private int lastRowNum;
+        private boolean committed;
+
+        private Writer(Path source, Path target) throws IOException {
+            // Taken before parsing, so an upload replaced mid-parse leaves the spill stale
+            this.source = Files.readAttributes(source, BasicFileAttributes.class);
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.createDirectories(SPILL_DIR);
+            this.out = new Output(Files.newOutputStream(temp));
+        }
+
+        public void add(RowResult row) throws IOException {
+            firstNames.write(out, row.getFirstName());
+            lastNames.write(out, row.getLastName());
+            out.string(row.getEmail());
+            out.string(row.getPhone());
+            out.string(row.getNationalId());
+            // 0 is null, anything else is the zigzagged epoch day plus one
+            out.varint(row.getDob() == null ? 0 : zigzag(row.getDob().toEpochDay()) + 1);
+            out.varint(row.getErrors().size());
+            for (String error : row.getErrors()) errors.write(out, error);
+            out.varint(zigzag(row.getRowNum() - lastRowNum));
+            lastRowNum = row.getRowNum();
+            rows++;
+        }
+
+        /** Writes the trailer and moves the spill into place. */
+        public void commit(Map<String, String> columnTypes, String dateFormat) throws IOException {
+            long trailer = out.written();
+            out.varint(source.size());
+            out.varint(source.lastModifiedTime().toMillis());
+            out.varint(rows);
+            out.varint(columnTypes == null ? 0 : columnTypes.size() + 1);
+            if (columnTypes != null) {
+                for (Map.Entry<String, String> e : columnTypes.entrySet()) {
+                    out.string(e.getKey());
+                    out.string(e.getValue());
+                }
+            }
+            out.string(dateFormat);
+            out.fixedLong(trailer);
+            out.fixedInt(MAGIC);
+            out.close();
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /** Drops an uncommitted spill. */
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static final class Reader implements Iterator<RowResult>, Closeable {
+        private final Input in;
+        private final long rows;
+        private final Map<String, String> columnTypes;
+        private final String dateFormat;
+        private final List<String> firstNames = new ArrayList<>();
+        private final List<String> lastNames = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private long read;
+        private int lastRowNum;
+
+        private Reader(Input in, long rows, Map<String, String> columnTypes, String dateFormat) {
+            this.in = in;
+            this.rows = rows;
+            this.columnTypes = columnTypes;
+            this.dateFormat = dateFormat;
+        }
+
+        private static Reader open(FileChannel channel, Path sourcePath) throws IOException {
+            long size = channel.size();
+            if (size < FOOTER_SIZE) return null;
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            channel.read(footer, size - FOOTER_SIZE);
+            footer.flip();
+            long trailer = footer.getLong();
+            if (footer.getInt() != MAGIC || trailer < 0 || trailer > size - FOOTER_SIZE) return null;
+
+            Input meta = new Input(channel, trailer, size - FOOTER_SIZE);
+            long sourceSize = meta.varint();
+            long sourceModified = meta.varint();
+            BasicFileAttributes source = Files.readAttributes(sourcePath, BasicFileAttributes.class);
+            if (source.size() != sourceSize || source.lastModifiedTime().toMillis() != sourceModified) return null;
+
+            long rows = meta.varint();
+            Map<String, String> columnTypes = null;
+            long types = meta.varint();
+            if (types > 0) {
+                columnTypes = new LinkedHashMap<>();
+                for (long i = 1; i < types; i++) columnTypes.put(meta.string(), meta.string());
+            }
+            String dateFormat = meta.string();
+
+            return new Reader(new Input(channel, 0, trailer), rows, columnTypes, dateFormat);
+        }
+
+        public Map<String, String> getColumnTypes() {
+            return columnTypes;
+        }
+
+        public String getDateFormat() {
+            return dateFormat;
+        }
+
+        public long getRowCount() {
+            return rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read < rows;
+        }
+
+        @Override
+        public RowResult next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            try {
+                RowResult row = new RowResult();
+                row.setFirstName(in.dictionaryString(firstNames));
+                row.setLastName(in.dictionaryString(lastNames));
+                row.setEmail(in.string());
+                row.setPhone(in.string());
+                row.setNationalId(in.string());
+                long dob = in.varint();
+                row.setDob(dob == 0 ? null : LocalDate.ofEpochDay(unzigzag(dob - 1)));
+                int count = (int) in.varint();
+                List<String> messages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) messages.add(in.dictionaryString(errors));
+                row.setErrors(messages);
+                lastRowNum += (int) unzigzag(in.varint());
+                row.setRowNum(lastRowNum);
+                read++;
+                return row;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.channel.close();
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Writer-side dictionary of one column; values past the size cap are written out in full. */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        void write(Output out, String value) throws IOException {
+            if (value == null) {
+                out.varint(TAG_NULL);
+                return;
+            }
+            Integer id = ids.get(value);
+            if (id != null) {
+                out.varint(TAG_REF + id);
+                return;
+            }
+            if (ids.size() < MAX_DICTIONARY_SIZE && value.length() <= MAX_DICTIONARY_VALUE) {
+                ids.put(value, ids.size());
+                out.varint(TAG_DEFINE);
+            } else {
+                out.varint(TAG_LITERAL);
+            }
+            out.bytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class Output implements Closeable {
+        private final OutputStream out;
+        private long written;
+
+        Output(OutputStream out) {
+            this.out = new BufferedOutputStream(out, 64 * 1024);
+        }
+
+        long written() {
+            return written;
+        }
+
+        void varint(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+                written++;
+            }
+            out.write((int) v);
+            written++;
+        }
+
+        /** 0 for null, otherwise the UTF-8 length plus one, then the bytes. */
+        void string(String value) throws IOException {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1L);
+            out.write(bytes);
+            written += bytes.length;
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            varint(bytes.length);
+            out.write(bytes);
+            written += bytes.length;
+        }
+
+        void fixedLong(long v) throws IOException {
+            for (int shift = 56; shift >= 0; shift -= 8) out.write((int) (v >>> shift));
+            written += Long.BYTES;
+        }
+
+        void fixedInt(int v) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) out.write(v >>> shift);
+            written += Integer.BYTES;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** Decodes a region of the spill through a sliding memory-mapped window. */
+    private static final class Input {
+        private final FileChannel channel;
+        private final long end;
+        private MappedByteBuffer buf;
+        private long windowStart;
+
+        Input(FileChannel channel, long start, long end) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            remap(start);
+        }
+
+        long varint() throws IOException {
+            fill(10);
+            try {
+                long v = 0;
+                for (int shift = 0; shift < 64; shift += 7) {
+                    byte b = buf.get();
+                    v |= (long) (b & 0x7F) << shift;
+                    if (b >= 0) return v;
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Spill file is truncated", e);
+            }
+            throw new IOException("Spill file is corrupt: varint too long");
+        }
+
+        String string() throws IOException {
+            long length = varint();
+            return length == 0 ? null : utf8(length - 1);
+        }
+
+        String dictionaryString(List<String> dictionary) throws IOException {
+            long tag = varint();
+            if (tag == TAG_NULL) return null;
+            if (tag >= TAG_REF) {
+                long id = tag - TAG_REF;
+                if (id >= dictionary.size()) throw new IOException("Spill file is corrupt: unknown dictionary id " + id);
+                return dictionary.get((int) id);
+            }
+            String value = utf8(varint());
+            if (tag == TAG_DEFINE) dictionary.add(value);
+            return value;
+        }
+
+        private String utf8(long length) throws IOException {
+            if (length > WINDOW_SIZE) throw new IOException("Spill file is corrupt: value of " + length + " bytes");
+            int len = (int) length;
+            fill(len);
+            if (buf.remaining() < len) throw new IOException("Spill file is truncated");
+
+            byte[] bytes = new byte[len];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Slides the window so the next {@code n} bytes are mapped, as far as the region has them. */
+        private void fill(int n) throws IOException {
+            if (buf.remaining() < n && windowStart + buf.limit() < end) remap(windowStart + buf.position());
+        }
+
+        private void remap(long offset) throws IOException {
+            windowStart = offset;
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, end - offset));
+        }
+    }
+}
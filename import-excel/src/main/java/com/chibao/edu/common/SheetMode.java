@@ -0,0 +1,6 @@
+package com.chibao.edu.common;
+
+// FIRST imports the first sheet only; ALL imports every sheet, each read on its own worker
+public enum SheetMode {
+    FIRST, ALL
+}
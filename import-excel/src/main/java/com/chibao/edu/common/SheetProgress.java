@@ -0,0 +1,26 @@
+package com.chibao.edu.common;
+
+import jakarta.persistence.Embeddable;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Progress of one sheet in a whole-workbook import. The counts cover the rows the import has
+ * taken so far; {@code status} is READING until the sheet's last row is taken, then DONE,
+ * SKIPPED (empty sheet or missing headers, see {@code message}) or FAILED.
+ */
+@Embeddable
+@Data
+@NoArgsConstructor
+public class SheetProgress {
+    private String sheetName;
+    private String status;
+    private String message;
+    private long rowsRead;
+    private long rowsInvalid;
+
+    public SheetProgress(String sheetName) {
+        this.sheetName = sheetName;
+        this.status = "READING";
+    }
+}
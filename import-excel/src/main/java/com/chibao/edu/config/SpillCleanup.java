@@ -0,0 +1,31 @@
+package com.chibao.edu.config;
+
+import com.chibao.edu.common.RowSpill;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.time.Duration;
+
+// A started import deletes its own row spill; this removes the spills of previews that never were
+@Slf4j
+@Configuration
+@EnableScheduling
+public class SpillCleanup {
+    @Value("${import.spill.max-age:24h}")
+    private Duration maxAge = Duration.ofHours(24);
+
+    @Scheduled(initialDelayString = "${import.spill.cleanup-interval:PT1H}",
+            fixedDelayString = "${import.spill.cleanup-interval:PT1H}")
+    public void deleteStaleSpills() {
+        try {
+            int deleted = RowSpill.deleteOlderThan(maxAge);
+            if (deleted > 0) log.info("Deleted {} row spills older than {}", deleted, maxAge);
+        } catch (IOException e) {
+            log.warn("Failed to clean up row spills", e);
+        }
+    }
+}
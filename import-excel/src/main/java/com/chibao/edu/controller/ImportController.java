@@ -1,13 +1,20 @@
 package com.chibao.edu.controller;
 
+import com.chibao.edu.common.ChunkedUpload;
 import com.chibao.edu.common.ImportJob;
 
 import com.chibao.edu.common.ImportOption;
+import com.chibao.edu.common.PreviewMode;
+import com.chibao.edu.common.SheetMode;
+import com.chibao.edu.common.TeeUpload;
 import com.chibao.edu.dto.ImportPreviewResponse;
 import com.chibao.edu.repository.ImportJobRepository;
 import com.chibao.edu.service.ImportService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -17,19 +24,25 @@ import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/v1/patients/import")
 @RequiredArgsConstructor
 public class ImportController {
+    private static final String DEFAULT_CHUNK_SIZE = "8388608"; // 8MB
     private final ImportService importService;
     private final ImportJobRepository importJobRepository;
 
+    @Value("${import.max-upload-size:" + ChunkedUpload.DEFAULT_MAX_UPLOAD_SIZE + "}")
+    private DataSize maxUploadSize = DataSize.ofGigabytes(2);
+
 
     // Upload file and return preview (stores file temporarily)
     @PostMapping(consumes = {"multipart/form-data"})
-    public ResponseEntity<?> uploadAndPreview(@RequestParam("file") MultipartFile file) throws IOException {
+    public ResponseEntity<?> uploadAndPreview(@RequestParam("file") MultipartFile file,
+                                              @RequestParam(value = "preview", defaultValue = "FULL") PreviewMode previewMode) throws IOException {
         if (file == null || file.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "file is required"));
 
 
@@ -43,12 +56,15 @@ public class ImportController {
         // ? nối dir/original
         Path target = dir.resolve(original);
         // ? ố gắng di chuyển hoặc ghi nội dung upload vào file đích
-        try (InputStream in = file.getInputStream()) {
-            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        // Hashed in the same pass that saves it
+        String contentHash;
+        try (InputStream in = file.getInputStream(); TeeUpload upload = TeeUpload.to(in, target)) {
+            contentHash = upload.finish();
         }
 
         // call service to parse preview (service will use Excel parser)
-        ImportPreviewResponse preview = importService.previewFromFile(target.toString());
+        ImportPreviewResponse preview = importService.previewFromFile(jobId, target.toString(), previewMode);
+        preview.setContentHash(contentHash);
 
 
         // save import job record with path and PREVIEWED status
@@ -56,6 +72,7 @@ public class ImportController {
         j.setJobId(jobId);
         j.setFilename(original);
         j.setFilePath(target.toString());
+        j.setContentHash(contentHash);
         j.setStatus("PREVIEWED");
         j.setCreatedAt(LocalDateTime.now());
         importJobRepository.save(j);
@@ -65,12 +82,112 @@ public class ImportController {
     }
 
 
+    // Chunked upload, for files too large for one request or links too flaky for it: initiate,
+    // PUT the numbered chunks in any order (resending any that fail), then complete
+    @PostMapping("/uploads")
+    public ResponseEntity<?> initiateUpload(@RequestParam("filename") String filename,
+                                            @RequestParam("size") long size,
+                                            @RequestParam(value = "chunkSize", defaultValue = DEFAULT_CHUNK_SIZE) int chunkSize) throws IOException {
+        String original = Paths.get(Objects.requireNonNull(filename)).getFileName().toString();
+        UUID jobId = UUID.randomUUID();
+        Path target = Paths.get(System.getProperty("java.io.tmpdir"), "excel-import", jobId.toString(), original);
+
+        ChunkedUpload upload;
+        try {
+            upload = ChunkedUpload.create(target, size, chunkSize, maxUploadSize.toBytes());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+
+        // The job exists from the start so the upload can be resumed by its id
+        ImportJob j = new ImportJob();
+        j.setJobId(jobId);
+        j.setFilename(original);
+        j.setFilePath(target.toString());
+        j.setStatus("UPLOADING");
+        j.setCreatedAt(LocalDateTime.now());
+        importJobRepository.save(j);
+
+        return ResponseEntity.ok(Map.of("jobId", jobId, "chunkSize", upload.getChunkSize(), "chunks", upload.chunkCount()));
+    }
+
+
+    @PutMapping(value = "/uploads/{jobId}/chunks/{index}", consumes = {"application/octet-stream"})
+    public ResponseEntity<?> uploadChunk(@PathVariable("jobId") UUID jobId,
+                                         @PathVariable("index") int index,
+                                         @RequestHeader("X-Chunk-SHA256") String sha256,
+                                         InputStream body) throws IOException {
+        Optional<ImportJob> job = uploadingJob(jobId);
+        if (job.isEmpty()) return ResponseEntity.notFound().build();
+
+        try {
+            ChunkedUpload.open(Paths.get(job.get().getFilePath())).writeChunk(index, body, sha256);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            // The same chunk is being written by another request
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+
+    // What is left to send, for resuming an interrupted upload
+    @GetMapping("/uploads/{jobId}")
+    public ResponseEntity<?> uploadStatus(@PathVariable("jobId") UUID jobId) throws IOException {
+        Optional<ImportJob> job = uploadingJob(jobId);
+        if (job.isEmpty()) return ResponseEntity.notFound().build();
+
+        ChunkedUpload upload = ChunkedUpload.open(Paths.get(job.get().getFilePath()));
+        return ResponseEntity.ok(Map.of("jobId", jobId, "size", upload.getSize(), "chunkSize", upload.getChunkSize(),
+                "missing", upload.missingChunks()));
+    }
+
+
+    // Every chunk is already in place, so the file is previewed where it lies
+    @PostMapping("/uploads/{jobId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable("jobId") UUID jobId,
+                                            @RequestParam(value = "preview", defaultValue = "FULL") PreviewMode previewMode) throws IOException {
+        Optional<ImportJob> job = uploadingJob(jobId);
+        if (job.isEmpty()) return ResponseEntity.notFound().build();
+        ImportJob j = job.get();
+
+        ChunkedUpload upload;
+        String contentHash;
+        try {
+            upload = ChunkedUpload.open(Paths.get(j.getFilePath()));
+            contentHash = upload.complete();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+
+        ImportPreviewResponse preview = importService.previewFromFile(jobId, j.getFilePath(), previewMode);
+        preview.setContentHash(contentHash);
+        j.setContentHash(contentHash);
+        j.setStatus("PREVIEWED");
+        importJobRepository.save(j);
+        // Only now: if the preview failed, the job is still UPLOADING and complete can be retried
+        upload.finish();
+
+        return ResponseEntity.ok(Map.of("jobId", jobId, "preview", preview));
+    }
+
+
+    private Optional<ImportJob> uploadingJob(UUID jobId) {
+        return importJobRepository.findById(jobId).filter(j -> "UPLOADING".equals(j.getStatus()));
+    }
+
+
     // Start import based on stored file
     @PostMapping("/start")
     public ResponseEntity<?> startImport(@RequestParam("jobId") UUID jobId,
-                                         @RequestParam("option") ImportOption option) {
-        importService.startImportFromStoredFile(jobId, option);
-        return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+                                         @RequestParam("option") ImportOption option,
+                                         @RequestParam(value = "sheets", defaultValue = "FIRST") SheetMode sheets) {
+        ImportJob j = importService.startImportFromStoredFile(jobId, option, sheets);
+        if (j.getReusedFromJobId() == null) return ResponseEntity.accepted().body(Map.of("jobId", jobId));
+
+        // Nothing ran: this exact file was already imported with the same options
+        return ResponseEntity.ok(Map.of("jobId", jobId, "status", j.getStatus(), "reusedFromJobId", j.getReusedFromJobId()));
     }
 
 
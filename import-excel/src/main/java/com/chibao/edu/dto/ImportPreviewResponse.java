@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Data
@@ -16,8 +17,14 @@ public class ImportPreviewResponse {
     private boolean headerValid;
     private boolean tooManyRows;
     private int totalRows;
+    // True when totalRows comes from a quick count rather than a full parse
+    private boolean rowCountEstimated;
+    // SHA-256 of the upload, computed while it was saved
+    private String contentHash;
     private List<RowResult> previewRows;
     private String message;
+    private Map<String, String> columnTypes;
+    private String dateFormat;
 
 
     public static ImportPreviewResponse of(UUID jobId, boolean headerValid, List<RowResult> rows, String message) {
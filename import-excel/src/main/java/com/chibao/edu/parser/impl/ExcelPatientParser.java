@@ -3,16 +3,42 @@ package com.chibao.edu.parser.impl;
 
 import com.chibao.edu.common.ParseResult;
 import com.chibao.edu.common.RowResult;
+import com.chibao.edu.parser.ColumnProfile;
+import com.chibao.edu.parser.ColumnProfiler;
 import com.chibao.edu.parser.FileParser;
-import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.chibao.edu.parser.MappedSharedStrings;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDate;
-import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -24,6 +50,10 @@ public class ExcelPatientParser implements FileParser {
     private static final Pattern EMAIL_PATTERN
             = Pattern.compile("^[A-Z0-9._%+-]+@[A-Z0-9.-]+\\.[A-Z]{2,}$", Pattern.CASE_INSENSITIVE);
 
+    // A larger shared strings part is kept on disk rather than on the heap, see MappedSharedStrings
+    @Value("${import.excel.max-in-memory-shared-strings:32MB}")
+    private DataSize maxInMemorySharedStrings = DataSize.ofMegabytes(32);
+
     @Override
     public boolean supports(String filename) {
         if (filename == null) return false;
@@ -33,39 +63,268 @@ public class ExcelPatientParser implements FileParser {
 
     @Override
     public ParseResult parse(String filePath) throws IOException {
+        List<RowResult> rows = new ArrayList<>();
+        ParseResult result = parse(filePath, rr -> {
+            if (rows.size() >= MAX_ROWS)
+                throw new IllegalStateException("Too many rows. Max allowed: " + MAX_ROWS);
+            rows.add(rr);
+        });
+        result.setRows(rows);
+        return result;
+    }
+
+    /**
+     * Streaming mode: hands every data row of the first sheet to {@code rowConsumer} as soon as it
+     * is read. {@code .xlsx} files go through the XSSF event model (SAX over the sheet part), so
+     * memory stays flat no matter how large the sheet is; legacy {@code .xls} files still need the
+     * workbook model. The returned result carries the header verdict only - its row list is empty.
+     */
+    public ParseResult parse(String filePath, Consumer<RowResult> rowConsumer) throws IOException {
         File file = new File(filePath);
         if (!file.exists()) throw new IOException("File not found: " + filePath);
 
-        try (Workbook workbook = WorkbookFactory.create(file)) {
-            Sheet sheet = getFirstSheet(workbook);
-            if (sheet == null) return ParseResult.error("Workbook has no sheets");
+        PatientRowHandler handler = new PatientRowHandler(rowConsumer, null, false);
+        try {
+            boolean hasSheet = filePath.toLowerCase().endsWith(".xlsx")
+                    ? readFirstSheetStreaming(file, handler)
+                    : readFirstSheet(file, handler);
+            if (!hasSheet) return ParseResult.error("Workbook has no sheets");
+            // Flushes the rows held back for profiling, so the consumer can still stop here
+            return handler.result();
+        } catch (StopReading stop) {
+            // The profile is locked before any row is emitted, so this does not flush again
+            return handler.result();
+        }
+    }
+
+    /**
+     * Head-only mode: stops reading the sheet once {@code limit} rows are parsed. The rows use the
+     * same column profile as a full parse, so up to {@link ColumnProfiler#SAMPLE_SIZE} rows are
+     * read whatever the limit.
+     */
+    public ParseResult head(String filePath, int limit) throws IOException {
+        List<RowResult> rows = new ArrayList<>();
+        ParseResult result = parse(filePath, rr -> {
+            rows.add(rr);
+            if (rows.size() >= limit) throw new StopReading();
+        });
+        result.setRows(rows);
+        return result;
+    }
+
+    /**
+     * Estimated number of data rows, without parsing any cell. For {@code .xlsx} this is the
+     * sheet's {@code <dimension>} when it spans more than one cell, otherwise a SAX pass that counts
+     * {@code <row>} elements and skips the shared strings. Blank rows are included.
+     */
+    public long countRows(String filePath) throws IOException {
+        File file = new File(filePath);
+        if (!file.exists()) throw new IOException("File not found: " + filePath);
+
+        if (!filePath.toLowerCase().endsWith(".xlsx")) {
+            try (Workbook workbook = WorkbookFactory.create(file)) {
+                Sheet sheet = getFirstSheet(workbook);
+                return sheet == null ? 0 : Math.max(0, sheet.getPhysicalNumberOfRows() - 1);
+            }
+        }
 
-            Iterator<Row> rowIterator = sheet.rowIterator();
-            if (!rowIterator.hasNext()) return ParseResult.error("Sheet is empty");
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Invalid Excel format", e);
+        }
 
-            DataFormatter formatter = new DataFormatter();
-            List<String> headers = readHeaders(rowIterator.next(), formatter);
+        try {
+            Iterator<InputStream> sheets = new XSSFReader(pkg).getSheetsData();
+            if (!sheets.hasNext()) return 0;
 
-            // Validate header
-            ParseResult headerCheck = validateHeaders(headers);
-            Map<String, Integer> headerIndex = mapHeaderIndexes(headers);
+            RowCounter counter = new RowCounter();
+            XMLReader xmlReader = XMLHelper.newXMLReader();
+            xmlReader.setContentHandler(counter);
+            try (InputStream sheet = sheets.next()) {
+                xmlReader.parse(new InputSource(sheet));
+            } catch (StopReading stop) {
+                // dimension found
+            }
+            return Math.max(0, counter.rows - 1);
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Invalid Excel format", e);
+        } finally {
+            pkg.revert();
+        }
+    }
 
-            // Parse data rows
-            List<RowResult> rows = parseDataRows(rowIterator, formatter, headerIndex);
-            return new ParseResult(headerCheck.isHeaderValid(), rows, headerCheck.getMessage(), false);
+    /**
+     * Whole-workbook mode: every sheet is parsed at once, each on its own task on
+     * {@code workers}, and their rows are handed out through the returned {@link WorkbookSheets}
+     * as they come. Rows carry their sheet name and the sheet's own row number. A sheet that is
+     * empty or lacks the expected headers is skipped rather than failing the others.
+     * <p>
+     * For {@code .xlsx} the shared strings are loaded once for all sheets, and each task streams
+     * its sheet part from its own handle on the package. {@code .xls} sheets come from the one
+     * loaded workbook, which POI does not make thread-safe, so a single task reads them in turn.
+     */
+    public WorkbookSheets readAllSheets(String filePath, Executor workers) throws IOException {
+        File file = new File(filePath);
+        if (!file.exists()) throw new IOException("File not found: " + filePath);
+
+        if (!filePath.toLowerCase().endsWith(".xlsx")) {
+            // The usermodel workbook is not thread-safe, so its sheets are read one at a time
+            Workbook workbook = WorkbookFactory.create(file);
+            List<String> names = new ArrayList<>();
+            for (Sheet sheet : workbook) names.add(sheet.getSheetName());
+            return new WorkbookSheets(names, (index, rows) -> readSheet(
+                    workbook.getSheetAt(index), newSheetHandler(rows, names.get(index))), workbook, workers, true);
+        }
+
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Invalid Excel format", e);
+        }
+
+        try {
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+            List<String> names = new ArrayList<>();
+            List<PackagePartName> parts = new ArrayList<>();
+            while (sheets.hasNext()) {
+                try (InputStream ignored = sheets.next()) {
+                    names.add(sheets.getSheetName());
+                    parts.add(sheets.getSheetPart().getPartName());
+                }
+            }
+            SharedStrings sharedStrings = loadSharedStrings(pkg);
+            Closeable release = () -> {
+                try {
+                    closeSharedStrings(sharedStrings);
+                } finally {
+                    pkg.revert();
+                }
+            };
+
+            return new WorkbookSheets(names, (index, rows) -> readSheetPart(
+                    file, parts.get(index), sharedStrings, newSheetHandler(rows, names.get(index))), release, workers, false);
+        } catch (OpenXML4JException | SAXException e) {
+            pkg.revert();
+            throw new IOException("Invalid Excel format", e);
+        } catch (IOException | RuntimeException e) {
+            pkg.revert();
+            throw e;
+        }
+    }
+
+    private PatientRowHandler newSheetHandler(Consumer<RowResult> rows, String sheetName) {
+        return new PatientRowHandler(rows, sheetName, true);
+    }
+
+    private ParseResult readSheetPart(File file, PackagePartName partName, SharedStrings sharedStrings,
+                                      PatientRowHandler handler) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Invalid Excel format", e);
+        }
+
+        try {
+            PackagePart part = pkg.getPart(partName);
+            if (part == null) throw new IOException("Sheet part missing: " + partName.getName());
+            try (InputStream sheet = part.getInputStream()) {
+                parseSheetXml(sheet, sharedStrings, new XSSFReader(pkg).getStylesTable(), handler);
+            }
+        } catch (StopReading stop) {
+            // headers missing, the sheet is skipped
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Invalid Excel format", e);
+        } finally {
+            pkg.revert();
+        }
+        return handler.result();
+    }
+
+    private ParseResult readSheet(Sheet sheet, PatientRowHandler handler) {
+        try {
+            readRows(sheet, handler);
+        } catch (StopReading stop) {
+            // headers missing, the sheet is skipped
+        }
+        return handler.result();
+    }
 
+    private boolean readFirstSheetStreaming(File file, Consumer<SheetRow> handler) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
         } catch (InvalidFormatException e) {
             throw new IOException("Invalid Excel format", e);
         }
+
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) return false;
+
+            SharedStrings sharedStrings = loadSharedStrings(pkg);
+            try (InputStream sheet = sheets.next()) {
+                parseSheetXml(sheet, sharedStrings, reader.getStylesTable(), handler);
+            } finally {
+                closeSharedStrings(sharedStrings);
+            }
+            return true;
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Invalid Excel format", e);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    /**
+     * The workbook's shared strings: on the heap as POI reads them, or through
+     * {@link MappedSharedStrings} when the part is larger than the configured limit.
+     */
+    private SharedStrings loadSharedStrings(OPCPackage pkg) throws IOException, SAXException, OpenXML4JException {
+        List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+        if (!parts.isEmpty() && parts.get(0).getSize() > maxInMemorySharedStrings.toBytes()) {
+            return MappedSharedStrings.load(parts.get(0));
+        }
+        return new ReadOnlySharedStringsTable(pkg);
+    }
+
+    private void closeSharedStrings(SharedStrings sharedStrings) throws IOException {
+        if (sharedStrings instanceof Closeable closeable) closeable.close();
+    }
+
+    private void parseSheetXml(InputStream sheet, SharedStrings sharedStrings, StylesTable styles,
+                               Consumer<SheetRow> handler) throws IOException, SAXException, ParserConfigurationException {
+        XMLReader xmlReader = XMLHelper.newXMLReader();
+        xmlReader.setContentHandler(new XlsxSheetHandler(sharedStrings, styles, new DataFormatter(), handler));
+        xmlReader.parse(new InputSource(sheet));
+    }
+
+    private boolean readFirstSheet(File file, Consumer<SheetRow> handler) throws IOException {
+        try (Workbook workbook = WorkbookFactory.create(file)) {
+            Sheet sheet = getFirstSheet(workbook);
+            if (sheet == null) return false;
+
+            readRows(sheet, handler);
+            return true;
+        }
+    }
+
+    private void readRows(Sheet sheet, Consumer<SheetRow> handler) {
+        DataFormatter formatter = new DataFormatter();
+        for (Row row : sheet) handler.accept(SheetRow.of(row, formatter));
     }
 
     private Sheet getFirstSheet(Workbook wb) {
         return wb.getNumberOfSheets() > 0 ? wb.getSheetAt(0) : null;
     }
 
-    private List<String> readHeaders(Row headerRow, DataFormatter formatter) {
+    private List<String> readHeaders(SheetRow headerRow) {
         List<String> headers = new ArrayList<>();
-        for (Cell c : headerRow) headers.add(formatter.formatCellValue(c).trim());
+        for (String v : headerRow.presentValues()) headers.add(v.trim());
         return headers;
     }
 
@@ -86,50 +345,39 @@ public class ExcelPatientParser implements FileParser {
         return headerIndex;
     }
 
-    private List<RowResult> parseDataRows(Iterator<Row> rowIterator, DataFormatter formatter, Map<String, Integer> headerIndex) {
-        List<RowResult> results = new ArrayList<>();
-        int rowCount = 0;
-
-        while (rowIterator.hasNext()) {
-            Row row = rowIterator.next();
-            if (isRowBlank(row)) continue;
-            if (++rowCount > MAX_ROWS)
-                throw new IllegalStateException("Too many rows. Max allowed: " + MAX_ROWS);
+    private String[] values(SheetRow row, Map<String, Integer> headerIndex) {
+        return EXPECTED_HEADERS.stream()
+                .map(col -> getCellString(row, headerIndex, col))
+                .toArray(String[]::new);
+    }
 
-            results.add(parseSingleRow(row, formatter, headerIndex));
-        }
-        return results;
+    private boolean hasTypedDob(SheetRow row, Map<String, Integer> headerIndex) {
+        Integer idx = headerIndex.get("dob");
+        return idx != null && row.date(idx) != null;
     }
 
-    private RowResult parseSingleRow(Row row, DataFormatter formatter, Map<String, Integer> headerIndex) {
+    private RowResult parseSingleRow(SheetRow row, Map<String, Integer> headerIndex, ColumnProfile profile) {
         RowResult rr = new RowResult();
-        rr.setFirstName(getCellString(row, headerIndex, "firstname", formatter));
-        rr.setLastName(getCellString(row, headerIndex, "lastname", formatter));
-        rr.setEmail(getCellString(row, headerIndex, "email", formatter));
-        rr.setPhone(getCellString(row, headerIndex, "phone", formatter));
-        rr.setNationalId(getCellString(row, headerIndex, "nationalid", formatter));
-
-        String dobRaw = getCellString(row, headerIndex, "dob", formatter);
-        rr.setDob(parseDob(row, headerIndex, dobRaw));
+        rr.setRowNum(row.getRowNum() + 1);
+        rr.setFirstName(getCellString(row, headerIndex, "firstname"));
+        rr.setLastName(getCellString(row, headerIndex, "lastname"));
+        rr.setEmail(getCellString(row, headerIndex, "email"));
+        rr.setPhone(getCellString(row, headerIndex, "phone"));
+        rr.setNationalId(getCellString(row, headerIndex, "nationalid"));
+
+        String dobRaw = getCellString(row, headerIndex, "dob");
+        rr.setDob(parseDob(row, headerIndex, dobRaw, profile));
         rr.setErrors(validateRow(rr, dobRaw));
         return rr;
     }
 
-    private LocalDate parseDob(Row row, Map<String, Integer> headerIndex, String dobRaw) {
+    private LocalDate parseDob(SheetRow row, Map<String, Integer> headerIndex, String dobRaw, ColumnProfile profile) {
         Integer idx = headerIndex.get("dob");
-        if (idx == null) return null;
-        Cell dobCell = row.getCell(idx);
-        if (dobCell == null) return null;
+        if (idx == null || row.value(idx) == null) return null;
 
-        try {
-            if (dobCell.getCellType() == CellType.NUMERIC && DateUtil.isCellDateFormatted(dobCell)) {
-                Date d = dobCell.getDateCellValue();
-                return d.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-            }
-            return parseDateLenient(dobRaw);
-        } catch (Exception ignored) {
-            return null;
-        }
+        LocalDate date = row.date(idx);
+        if (date != null) return date;
+        return dobRaw.isEmpty() ? null : profile.parseDob(dobRaw);
     }
 
     private List<String> validateRow(RowResult rr, String dobRaw) {
@@ -142,41 +390,104 @@ public class ExcelPatientParser implements FileParser {
         return errs;
     }
 
-    private boolean isRowBlank(Row r) {
-        DataFormatter formatter = new DataFormatter();
-        for (Cell c : r) {
-            if (!formatter.formatCellValue(c).trim().isEmpty()) return false;
-        }
-        return true;
-    }
-
-    private String getCellString(Row r, Map<String, Integer> headerIndex, String colName, DataFormatter formatter) {
+    private String getCellString(SheetRow r, Map<String, Integer> headerIndex, String colName) {
         Integer idx = headerIndex.get(colName.toLowerCase());
         if (idx == null) return null;
-        Cell cell = r.getCell(idx);
-        if (cell == null) return null;
-        return formatter.formatCellValue(cell).trim();
+        String value = r.value(idx);
+        return value == null ? null : value.trim();
     }
 
-    private LocalDate parseDateLenient(String txt) {
-        if (txt == null) return null;
-        try {
-            return LocalDate.parse(txt);
-        } catch (Exception ignored) {
+    private boolean isValidEmail(String e) {
+        return e != null && EMAIL_PATTERN.matcher(e).matches();
+    }
+
+    /**
+     * Turns sheet rows into {@link RowResult}s: the first row is taken as the header, blank rows are
+     * skipped, everything else is parsed, validated and passed on. Shared by the streaming and
+     * workbook paths so both apply exactly the same rules. The first data rows are held back until
+     * {@link ColumnProfiler} has locked in the column formats, then parsed with them. With
+     * {@code stopOnInvalidHeader} a sheet whose header is wrong yields no rows at all.
+     */
+    private final class PatientRowHandler implements Consumer<SheetRow> {
+        private final Consumer<RowResult> rowConsumer;
+        private final String sheetName;
+        private final boolean stopOnInvalidHeader;
+        private final ColumnProfiler profiler = new ColumnProfiler(EXPECTED_HEADERS);
+        private final List<SheetRow> pending = new ArrayList<>();
+        private ParseResult headerCheck;
+        private Map<String, Integer> headerIndex;
+        private ColumnProfile profile;
+
+        private PatientRowHandler(Consumer<RowResult> rowConsumer, String sheetName, boolean stopOnInvalidHeader) {
+            this.rowConsumer = rowConsumer;
+            this.sheetName = sheetName;
+            this.stopOnInvalidHeader = stopOnInvalidHeader;
         }
 
-        List<String> patterns = List.of("d/M/yyyy", "d/M/yy", "dd/MM/yyyy", "dd-MM-yyyy", "MM/dd/yyyy");
-        for (String p : patterns) {
-            try {
-                java.time.format.DateTimeFormatter fmt = java.time.format.DateTimeFormatter.ofPattern(p);
-                return LocalDate.parse(txt, fmt);
-            } catch (Exception ignored) {
+        @Override
+        public void accept(SheetRow row) {
+            if (headerIndex == null) {
+                List<String> headers = readHeaders(row);
+                headerCheck = validateHeaders(headers);
+                headerIndex = mapHeaderIndexes(headers);
+                if (stopOnInvalidHeader && !headerCheck.isHeaderValid()) throw new StopReading();
+                return;
+            }
+            if (row.isBlank()) return;
+            if (profile != null) {
+                emit(row);
+                return;
             }
+
+            profiler.add(values(row, headerIndex), hasTypedDob(row, headerIndex));
+            pending.add(row);
+            if (profiler.isComplete()) lockProfile();
+        }
+
+        private void lockProfile() {
+            profile = profiler.profile();
+            for (SheetRow row : pending) emit(row);
+            pending.clear();
+        }
+
+        private void emit(SheetRow row) {
+            RowResult rr = parseSingleRow(row, headerIndex, profile);
+            rr.setSheet(sheetName);
+            rowConsumer.accept(rr);
+        }
+
+        private ParseResult result() {
+            if (headerCheck == null) return ParseResult.error("Sheet is empty");
+            if (profile == null) lockProfile();
+            headerCheck.setColumnTypes(profile.columnTypes());
+            headerCheck.setDateFormat(profile.dateFormat());
+            return headerCheck;
         }
-        return null;
     }
 
-    private boolean isValidEmail(String e) {
-        return e != null && EMAIL_PATTERN.matcher(e).matches();
+    /** Thrown from a callback to end a read early; the parse itself succeeded. */
+    private static final class StopReading extends RuntimeException {
+        private StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Takes the last row from {@code <dimension ref="A1:F5000">}, or counts rows if there is none. */
+    private static final class RowCounter extends DefaultHandler {
+        private static final Pattern LAST_ROW = Pattern.compile(":[A-Z]+(\\d+)$");
+        private long rows;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs) {
+            if (localName.equals("dimension")) {
+                Matcher m = LAST_ROW.matcher(String.valueOf(attrs.getValue("ref")));
+                if (m.find()) {
+                    rows = Long.parseLong(m.group(1));
+                    throw new StopReading();
+                }
+            } else if (localName.equals("row")) {
+                rows++;
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package com.chibao.edu.parser.impl;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A worksheet row reduced to what the patient parser needs: the formatted text of every
+ * physically present cell and, for numeric cells carrying a date format, the date value.
+ * Absent cells are {@code null}. Built either from a POI {@link Row} or by {@link XlsxSheetHandler}.
+ */
+public final class SheetRow {
+    private final int rowNum;
+    private final String[] values;
+    private final LocalDate[] dates;
+
+    public SheetRow(int rowNum, String[] values, LocalDate[] dates) {
+        this.rowNum = rowNum;
+        this.values = values;
+        this.dates = dates;
+    }
+
+    public static SheetRow of(Row row, DataFormatter formatter) {
+        int width = Math.max(row.getLastCellNum(), 0);
+        String[] values = new String[width];
+        LocalDate[] dates = new LocalDate[width];
+        for (Cell c : row) {
+            int col = c.getColumnIndex();
+            values[col] = formatter.formatCellValue(c);
+            if (c.getCellType() == CellType.NUMERIC && DateUtil.isCellDateFormatted(c)) {
+                dates[col] = c.getDateCellValue().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+            }
+        }
+        return new SheetRow(row.getRowNum(), values, dates);
+    }
+
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    public String value(int col) {
+        return col < values.length ? values[col] : null;
+    }
+
+    public LocalDate date(int col) {
+        return col < dates.length ? dates[col] : null;
+    }
+
+    /** Values of the present cells, left to right, skipping gaps - the same order a POI cell iterator yields. */
+    public List<String> presentValues() {
+        List<String> present = new ArrayList<>();
+        for (String v : values) {
+            if (v != null) present.add(v);
+        }
+        return present;
+    }
+
+    public boolean isBlank() {
+        for (String v : values) {
+            if (v != null && !v.trim().isEmpty()) return false;
+        }
+        return true;
+    }
+}
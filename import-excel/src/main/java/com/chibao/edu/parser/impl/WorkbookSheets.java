@@ -0,0 +1,171 @@
+package com.chibao.edu.parser.impl;
+
+import com.chibao.edu.common.ParseResult;
+import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.SheetProgress;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Rows of every sheet of a workbook, parsed concurrently: one task per sheet feeds a bounded
+ * queue and the import takes rows from it in whatever order the sheets produce them. The queue
+ * keeps memory flat, a fast sheet simply waits for the import to catch up. A workbook whose sheets
+ * cannot be read concurrently is read by a single task instead, one sheet after the other.
+ * <p>
+ * {@link #getSheets()} is the per-sheet progress, updated as rows are taken, so it is only read
+ * or saved from the thread that iterates. A sheet that cannot be read fails the iteration with an
+ * {@link UncheckedIOException}; closing stops the tasks that are still reading.
+ */
+public final class WorkbookSheets implements Iterator<RowResult>, Closeable {
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final SheetReader reader;
+    private final Closeable resource;
+    private final List<SheetProgress> sheets = new ArrayList<>();
+    private final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final CountDownLatch running;
+    private volatile boolean closed;
+    private int finished;
+    private RowResult next;
+
+    /** Parses one sheet, handing its rows to {@code rows}; called from the sheet's own task. */
+    interface SheetReader {
+        ParseResult read(int index, Consumer<RowResult> rows) throws IOException;
+    }
+
+    WorkbookSheets(List<String> sheetNames, SheetReader reader, Closeable resource, Executor workers,
+                   boolean sequential) {
+        this.reader = reader;
+        this.resource = resource;
+        this.running = new CountDownLatch(sheetNames.size());
+        for (String name : sheetNames) sheets.add(new SheetProgress(name));
+        if (sequential) {
+            workers.execute(() -> {
+                for (int i = 0; i < sheetNames.size(); i++) read(i);
+            });
+            return;
+        }
+        for (int i = 0; i < sheetNames.size(); i++) {
+            int index = i;
+            workers.execute(() -> read(index));
+        }
+    }
+
+    public List<SheetProgress> getSheets() {
+        return Collections.unmodifiableList(sheets);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && finished < sheets.size()) {
+            Item item = take();
+            SheetProgress sheet = sheets.get(item.sheet());
+            if (item.row() != null) {
+                sheet.setRowsRead(sheet.getRowsRead() + 1);
+                if (!item.row().getErrors().isEmpty()) sheet.setRowsInvalid(sheet.getRowsInvalid() + 1);
+                next = item.row();
+            } else {
+                finished++;
+                finish(sheet, item);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public RowResult next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        RowResult row = next;
+        next = null;
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            // A task blocked on the full queue gets room, then stops at its next row
+            do {
+                queue.clear();
+            } while (!running.await(10, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            resource.close();
+        }
+    }
+
+    private void finish(SheetProgress sheet, Item end) {
+        if (end.failure() != null) {
+            sheet.setStatus("FAILED");
+            sheet.setMessage(end.failure().getMessage());
+            throw new UncheckedIOException("Sheet " + sheet.getSheetName() + " could not be read", end.failure());
+        }
+        ParseResult result = end.result();
+        sheet.setStatus(result.isHeaderValid() ? "DONE" : "SKIPPED");
+        sheet.setMessage(result.getMessage());
+    }
+
+    private Item take() {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading sheets", e);
+        }
+    }
+
+    private void read(int index) {
+        try {
+            Item end;
+            try {
+                end = new Item(index, null, reader.read(index, row -> put(new Item(index, row, null, null))), null);
+            } catch (Cancelled e) {
+                return;
+            } catch (IOException e) {
+                end = new Item(index, null, null, e);
+            } catch (RuntimeException e) {
+                end = new Item(index, null, null, new IOException(e.getMessage(), e));
+            }
+            put(end);
+        } catch (Cancelled e) {
+            // closed while handing over the last row
+        } finally {
+            running.countDown();
+        }
+    }
+
+    private void put(Item item) {
+        if (closed) throw new Cancelled();
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Cancelled();
+        }
+    }
+
+    // A row, or the end of a sheet with either its header verdict or the error that stopped it
+    private record Item(int sheet, RowResult row, ParseResult result, IOException failure) {
+    }
+
+    /** Thrown inside a sheet task once the iteration is closed, to unwind the parse. */
+    private static final class Cancelled extends RuntimeException {
+        private Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.chibao.edu.parser.impl;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * SAX handler for a single worksheet part. Turns each {@code <row>} into a {@link SheetRow}
+ * and hands it to the consumer as soon as the row element closes, so only one row is
+ * ever held in memory. Cell text is formatted with the same {@link DataFormatter} rules
+ * the workbook model uses, and numeric cells with a date format also carry their date.
+ */
+public class XlsxSheetHandler extends DefaultHandler {
+    private final SharedStrings sharedStrings;
+    private final StylesTable styles;
+    private final DataFormatter formatter;
+    private final Consumer<SheetRow> rowConsumer;
+
+    private final StringBuilder text = new StringBuilder();
+    private boolean capturing;
+
+    private int rowNum = -1;
+    private List<String> values;
+    private List<LocalDate> dates;
+
+    private int column = -1;
+    private String cellType;
+    private String cellStyle;
+    private boolean hasValue;
+
+    public XlsxSheetHandler(SharedStrings sharedStrings, StylesTable styles, DataFormatter formatter,
+                            Consumer<SheetRow> rowConsumer) {
+        this.sharedStrings = sharedStrings;
+        this.styles = styles;
+        this.formatter = formatter;
+        this.rowConsumer = rowConsumer;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attrs) {
+        switch (localName) {
+            case "row" -> {
+                String r = attrs.getValue("r");
+                rowNum = r != null ? Integer.parseInt(r) - 1 : rowNum + 1;
+                values = new ArrayList<>();
+                dates = new ArrayList<>();
+                column = -1;
+            }
+            case "c" -> {
+                String ref = attrs.getValue("r");
+                column = ref != null ? columnIndex(ref) : column + 1;
+                cellType = attrs.getValue("t");
+                cellStyle = attrs.getValue("s");
+                hasValue = false;
+                text.setLength(0);
+            }
+            case "v", "t" -> {
+                capturing = true;
+                hasValue = true;
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        switch (localName) {
+            case "v", "t" -> capturing = false;
+            case "c" -> endCell();
+            case "row" -> rowConsumer.accept(new SheetRow(rowNum,
+                    values.toArray(new String[0]), dates.toArray(new LocalDate[0])));
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (capturing) text.append(ch, start, length);
+    }
+
+    private void endCell() {
+        while (values.size() <= column) {
+            values.add(null);
+            dates.add(null);
+        }
+        String raw = hasValue ? text.toString() : null;
+        if (raw == null) {
+            values.set(column, "");
+            return;
+        }
+
+        switch (cellType == null ? "n" : cellType) {
+            case "s" -> values.set(column, sharedStrings.getItemAt(Integer.parseInt(raw.trim())).getString());
+            case "b" -> values.set(column, "1".equals(raw) ? "TRUE" : "FALSE");
+            case "inlineStr", "str", "e" -> values.set(column, raw);
+            default -> setNumeric(raw);
+        }
+    }
+
+    private void setNumeric(String raw) {
+        double d;
+        try {
+            d = Double.parseDouble(raw);
+        } catch (NumberFormatException e) {
+            values.set(column, raw);
+            return;
+        }
+
+        XSSFCellStyle style = null;
+        if (cellStyle != null) {
+            style = styles.getStyleAt(Integer.parseInt(cellStyle));
+        } else if (styles.getNumCellStyles() > 0) {
+            style = styles.getStyleAt(0);
+        }
+
+        if (style == null) {
+            values.set(column, formatter.formatRawCellContents(d, -1, "General"));
+            return;
+        }
+
+        int formatIndex = style.getDataFormat();
+        String formatString = style.getDataFormatString();
+        if (formatString == null) formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+
+        values.set(column, formatter.formatRawCellContents(d, formatIndex, formatString));
+        if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(d)) {
+            dates.set(column, DateUtil.getLocalDateTime(d).toLocalDate());
+        }
+    }
+
+    private static int columnIndex(String cellRef) {
+        int col = 0;
+        for (int i = 0; i < cellRef.length(); i++) {
+            char ch = cellRef.charAt(i);
+            if (ch < 'A' || ch > 'Z') break;
+            col = col * 26 + (ch - 'A' + 1);
+        }
+        return col - 1;
+    }
+}
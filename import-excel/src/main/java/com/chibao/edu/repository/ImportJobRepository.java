@@ -1,9 +1,14 @@
 package com.chibao.edu.repository;
 
 import com.chibao.edu.common.ImportJob;
+import com.chibao.edu.common.ImportOption;
+import com.chibao.edu.common.SheetMode;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Optional;
 import java.util.UUID;
 
 public interface ImportJobRepository extends JpaRepository<ImportJob, UUID> {
+    Optional<ImportJob> findFirstByJobIdNotAndContentHashAndImportOptionAndSheetModeAndStatusOrderByCompletedAtDesc(
+            UUID jobId, String contentHash, ImportOption importOption, SheetMode sheetMode, String status);
 }
\ No newline at end of file
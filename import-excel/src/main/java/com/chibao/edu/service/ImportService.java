@@ -2,13 +2,16 @@ package com.chibao.edu.service;
 
 
 
+import com.chibao.edu.common.ImportJob;
 import com.chibao.edu.common.ImportOption;
+import com.chibao.edu.common.PreviewMode;
+import com.chibao.edu.common.SheetMode;
 import com.chibao.edu.dto.ImportPreviewResponse;
 
 import java.io.IOException;
 import java.util.UUID;
 
 public interface ImportService {
-    ImportPreviewResponse previewFromFile(String filePath) throws IOException;
-    void startImportFromStoredFile(UUID jobId, ImportOption option);
+    ImportPreviewResponse previewFromFile(UUID jobId, String filePath, PreviewMode preview) throws IOException;
+    ImportJob startImportFromStoredFile(UUID jobId, ImportOption option, SheetMode sheets);
 }
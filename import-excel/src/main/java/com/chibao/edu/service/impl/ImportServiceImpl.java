@@ -6,59 +6,116 @@ import com.chibao.edu.async.processor.ImportAsyncProcessorExcel;
 import com.chibao.edu.common.ImportJob;
 import com.chibao.edu.common.ImportOption;
 import com.chibao.edu.common.ParseResult;
+import com.chibao.edu.common.PreviewMode;
 import com.chibao.edu.common.RowResult;
+import com.chibao.edu.common.RowSpill;
+import com.chibao.edu.common.SheetMode;
 import com.chibao.edu.dto.ImportPreviewResponse;
 import com.chibao.edu.parser.impl.ExcelPatientParser;
+import com.chibao.edu.parser.impl.WorkbookSheets;
 import com.chibao.edu.repository.ImportJobRepository;
 import com.chibao.edu.service.ImportService;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class ImportServiceImpl implements ImportService {
+    private static final int PREVIEW_ROWS = 20;
+
     ExcelPatientParser parser;
     ImportJobRepository importJobRepository;
     ImportAsyncProcessorExcel asyncProcessor;
+    // Runs the per-sheet parse tasks of a whole-workbook import
+    Executor importTaskExecutor;
 
 
     @Override
-    public ImportPreviewResponse previewFromFile(String filePath) throws IOException {
-        ParseResult pr = parser.parse(filePath);
-        UUID jobId = UUID.randomUUID();
+    public ImportPreviewResponse previewFromFile(UUID jobId, String filePath, PreviewMode preview) throws IOException {
+        if (preview == PreviewMode.HEAD) return previewHead(filePath, jobId);
+
+        // Every row goes to the spill, so the start step does not parse the workbook again
+        List<RowResult> previewRows = new ArrayList<>();
+        int[] totalRows = {0};
+        ParseResult pr;
+        try (RowSpill.Writer spill = RowSpill.create(jobId, filePath)) {
+            pr = parser.parse(filePath, rr -> {
+                spill(spill, rr);
+                if (previewRows.size() < PREVIEW_ROWS) previewRows.add(rr);
+                totalRows[0]++;
+            });
+            if (pr.isHeaderValid()) spill.commit(pr.getColumnTypes(), pr.getDateFormat());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
 
-        List<RowResult> previewRows = pr.getRows().stream().limit(20).collect(Collectors.toList());
         ImportPreviewResponse resp = ImportPreviewResponse.of(jobId, pr.isHeaderValid(), previewRows, pr.getMessage());
-        resp.setTotalRows(pr.getRows().size());
+        resp.setTotalRows(totalRows[0]);
         resp.setTooManyRows(pr.isTooManyRows());
+        resp.setColumnTypes(pr.getColumnTypes());
+        resp.setDateFormat(pr.getDateFormat());
+        return resp;
+    }
+
+    // Nothing is spilled here, so the start step parses the workbook
+    private ImportPreviewResponse previewHead(String filePath, UUID jobId) throws IOException {
+        ParseResult pr = parser.head(filePath, PREVIEW_ROWS);
+
+        ImportPreviewResponse resp = ImportPreviewResponse.of(jobId, pr.isHeaderValid(), pr.getRows(), pr.getMessage());
+        resp.setTotalRows((int) Math.min(Integer.MAX_VALUE, parser.countRows(filePath)));
+        resp.setRowCountEstimated(true);
+        resp.setColumnTypes(pr.getColumnTypes());
+        resp.setDateFormat(pr.getDateFormat());
         return resp;
     }
 
     @Override
-    public void startImportFromStoredFile(UUID jobId, ImportOption option) {
+    public ImportJob startImportFromStoredFile(UUID jobId, ImportOption option, SheetMode sheets) {
         ImportJob j = importJobRepository.findById(jobId)
                 .orElseThrow(() -> new RuntimeException("Job not found: " + jobId));
+        if ("UPLOADING".equals(j.getStatus())) throw new IllegalStateException("Upload not completed: " + jobId);
+        j.setImportOption(option);
+        j.setSheetMode(sheets);
+        if (reusePreviousImport(j)) return j;
         String path = j.getFilePath();
 
         try {
-            ParseResult pr = parser.parse(path);
-            if (!pr.isHeaderValid()) throw new IllegalArgumentException("Invalid headers: " + pr.getMessage());
-            if (pr.isTooManyRows()) throw new IllegalArgumentException("Too many rows");
+            if (sheets == SheetMode.ALL) {
+                // The preview spilled only the first sheet, so every sheet is parsed here
+                WorkbookSheets rows = parser.readAllSheets(path, importTaskExecutor);
+
+                j.setStatus("RUNNING");
+                importJobRepository.save(j);
+
+                asyncProcessor.processAsync(jobId, rows, option);
+                return j;
+            }
+
+            // Rows spilled by the preview; parsed again only when the upload changed since
+            RowSpill.Reader rows = RowSpill.open(jobId, path);
+            if (rows == null) rows = reparse(jobId, path);
 
             j.setStatus("RUNNING");
             importJobRepository.save(j);
 
-            asyncProcessor.processAsync(jobId, pr.getRows(), option);
+            asyncProcessor.processAsync(jobId, rows, option);
+            return j;
         } catch (IOException ex) {
+            deleteSpill(jobId);
             j.setStatus("FAILED");
             j.setErrorFile(null);
             j.setCompletedAt(LocalDateTime.now());
@@ -66,4 +123,52 @@ public class ImportServiceImpl implements ImportService {
             throw new RuntimeException(ex);
         }
     }
+
+    /**
+     * An identical file already imported successfully with the same options leaves nothing to
+     * do: the job is completed as a reuse of that import instead of parsing and looking up every
+     * row again. The job itself is left out, as it is SUCCESS once it has been imported.
+     */
+    private boolean reusePreviousImport(ImportJob j) {
+        if (j.getContentHash() == null) return false;
+        Optional<ImportJob> previous = importJobRepository.findFirstByJobIdNotAndContentHashAndImportOptionAndSheetModeAndStatusOrderByCompletedAtDesc(
+                j.getJobId(), j.getContentHash(), j.getImportOption(), j.getSheetMode(), "SUCCESS");
+        if (previous.isEmpty()) return false;
+
+        deleteSpill(j.getJobId());
+        ImportJob p = previous.get();
+        j.setReusedFromJobId(p.getReusedFromJobId() != null ? p.getReusedFromJobId() : p.getJobId());
+        j.setStatus("SUCCESS");
+        j.setCompletedAt(LocalDateTime.now());
+        importJobRepository.save(j);
+        return true;
+    }
+
+    // Replaces a stale spill, so the import's own cleanup removes the one it read
+    private RowSpill.Reader reparse(UUID jobId, String path) throws IOException {
+        try (RowSpill.Writer spill = RowSpill.create(jobId, path)) {
+            ParseResult pr = parser.parse(path, rr -> spill(spill, rr));
+            if (!pr.isHeaderValid()) throw new IllegalArgumentException("Invalid headers: " + pr.getMessage());
+            spill.commit(pr.getColumnTypes(), pr.getDateFormat());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return RowSpill.open(jobId, path);
+    }
+
+    private void deleteSpill(UUID jobId) {
+        try {
+            RowSpill.delete(jobId);
+        } catch (IOException ex) {
+            log.warn("Failed to delete row spill of job {}", jobId, ex);
+        }
+    }
+
+    private static void spill(RowSpill.Writer spill, RowResult rr) {
+        try {
+            spill.add(rr);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package com.chibao.edu.config;
 
+import com.chibao.edu.dtos.PatientImportDTO;
+import com.chibao.edu.models.Patient;
 import com.chibao.edu.processors.PatientValidationProcessor;
 import com.chibao.edu.writers.PatientWriter;
 import lombok.RequiredArgsConstructor;
@@ -31,9 +33,9 @@ public class BatchConfiguration {
                 .build();
     }
 
-    public Step createPatientImportStep(ItemReader reader) {
+    public Step createPatientImportStep(ItemReader<PatientImportDTO> reader) {
         return new StepBuilder("patientImportStep", jobRepository)
-                .chunk(50, transactionManager)
+                .<PatientImportDTO, Patient>chunk(50, transactionManager)
                 .reader(reader)
                 .processor(processor)
                 .writer(writer)
@@ -36,7 +36,7 @@ public class ImportController {
 
             // Start import if autoStart is true
             if (autoStart) {
-                importService.startImport(response.getJobId(), file, duplicateStrategy);
+                importService.startImport(response.getJobId(), duplicateStrategy);
             }
 
             return ResponseEntity.ok(response);
@@ -55,12 +55,11 @@ public class ImportController {
     @PostMapping("/import/{jobId}/start")
     public ResponseEntity startImport(
             @PathVariable String jobId,
-            @RequestParam("file") MultipartFile file,
             @RequestParam(value = "duplicateStrategy", defaultValue = "SKIP")
             DuplicateHandlingStrategy duplicateStrategy) {
 
         try {
-            importService.startImport(jobId, file, duplicateStrategy);
+            importService.startImport(jobId, duplicateStrategy);
             return ResponseEntity.ok("Import started successfully");
         } catch (Throwable e) {
             log.error("Failed to start import", e);
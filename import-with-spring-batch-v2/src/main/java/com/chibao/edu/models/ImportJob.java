@@ -28,6 +28,9 @@ public class ImportJob {
     @Column(nullable = false)
     private String fileName;
 
+    // The upload as saved for this job; preview and the batch step both read it
+    private String filePath;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private ImportStatus status;
@@ -1,5 +1,6 @@
 package com.chibao.edu.processors;
 
+import com.chibao.edu.common.CompiledValidator;
 import com.chibao.edu.common.DuplicateHandlingStrategy;
 import com.chibao.edu.dtos.PatientImportDTO;
 import com.chibao.edu.models.Patient;
@@ -18,10 +19,11 @@ import java.util.stream.Collectors;
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class PatientValidationProcessor implements ItemProcessor {
+public class PatientValidationProcessor implements ItemProcessor<PatientImportDTO, Patient> {
 
     private final Validator validator;
     private final PatientRepository patientRepository;
+    private final CompiledValidator<Patient> validationPlan = CompiledValidator.forType(Patient.class);
     @Setter
     private DuplicateHandlingStrategy duplicateStrategy;
 
@@ -36,12 +38,9 @@ public class PatientValidationProcessor implements ItemProcessor {
         // Convert DTO to Entity
         Patient patient = convertToEntity(dto);
 
-        // Validate using Jakarta Validation
-        Set<ConstraintViolation<Patient>> violations = validator.validate(patient);
-        if (!violations.isEmpty()) {
-            String errors = violations.stream()
-                    .map(v -> v.getPropertyPath() + ": " + v.getMessage())
-                    .collect(Collectors.joining("; "));
+        // Validate the Jakarta constraints, through the compiled plan when Patient has one
+        String errors = validationPlan != null ? validateCompiled(patient) : validateWithValidator(patient);
+        if (errors != null) {
             dto.setValid(false);
             dto.setValidationErrors(errors);
             log.warn("Validation failed for row {}: {}", dto.getRowNumber(), errors);
@@ -70,6 +69,27 @@ public class PatientValidationProcessor implements ItemProcessor {
         return patient;
     }
 
+    private String validateCompiled(Patient patient) {
+        int check = validationPlan.nextViolation(patient, 0);
+        if (check < 0) return null;
+
+        StringBuilder errors = new StringBuilder();
+        for (; check >= 0; check = validationPlan.nextViolation(patient, check + 1)) {
+            if (!errors.isEmpty()) errors.append("; ");
+            errors.append(validationPlan.field(check)).append(": ").append(validationPlan.message(check));
+        }
+        return errors.toString();
+    }
+
+    private String validateWithValidator(Patient patient) {
+        Set<ConstraintViolation<Patient>> violations = validator.validate(patient);
+        if (violations.isEmpty()) return null;
+
+        return violations.stream()
+                .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+                .collect(Collectors.joining("; "));
+    }
+
     private Patient convertToEntity(PatientImportDTO dto) {
         return Patient.builder()
                 .patientId(dto.getPatientId())
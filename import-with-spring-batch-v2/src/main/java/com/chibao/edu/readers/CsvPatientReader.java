@@ -1,43 +1,110 @@
 package com.chibao.edu.readers;
 
 import com.chibao.edu.dtos.PatientImportDTO;
-import com.opencsv.exceptions.CsvValidationException;
+import com.opencsv.CSVParser;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.batch.item.ItemReader;
-import com.opencsv.CSVReader;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 
+/**
+ * Reads patients from a CSV file, one record at a time.
+ * <p>
+ * Lines are cut from the raw bytes here and split into fields by opencsv's {@link CSVParser}, which
+ * reports when a quoted field runs on to the next line, so quoting and escapes follow the
+ * parser's own rules. The reader therefore always knows the exact byte offset where the next
+ * record starts. That offset and the
+ * row number are saved to the step's execution context at every chunk commit, and a restarted
+ * step seeks straight back to it with {@link FileChannel#position(long)}, however far into the
+ * file it was. A compressed upload cannot seek, so on restart it skips the committed records.
+ */
 @Slf4j
-public class CsvPatientReader implements ItemReader<PatientImportDTO> {
+public class CsvPatientReader implements ItemStreamReader<PatientImportDTO> {
+
+    static final String OFFSET_KEY = "csvPatientReader.offset";
+    static final String ROW_KEY = "csvPatientReader.row";
+    private static final int BUFFER_SIZE = 64 * 1024;
 
-    private final CSVReader  csvReader;
+    private final Path file;
+    private final InputStream inputStream;
+    private final CSVParser parser = new CSVParser();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ReadableByteChannel channel;
+    private byte[] record = new byte[1024];
+    private long offset; // where the next record starts
     private int currentRow = 1; // Start at 1, header is row 0
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
-    public CsvPatientReader(InputStream inputStream) throws IOException {
-        this.csvReader = new CSVReader(new InputStreamReader(inputStream));
-        // Skip header row
+    /** A CSV file on disk; restarts seek to the last committed record. */
+    public CsvPatientReader(Path file) {
+        this.file = file;
+        this.inputStream = null;
+    }
+
+    /** A CSV stream, such as a decompressing one; restarts skip the committed records. */
+    public CsvPatientReader(InputStream inputStream) {
+        this.file = null;
+        this.inputStream = inputStream;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        if (channel != null) return;
+
         try {
-            csvReader.readNext();
-        } catch (CsvValidationException e) {
-            throw new IOException("Failed to read CSV header", e);
+            channel = file != null ? FileChannel.open(file, StandardOpenOption.READ) : Channels.newChannel(inputStream);
+            buffer.limit(0);
+
+            if (!executionContext.containsKey(ROW_KEY)) {
+                // Skip header row
+                if (nextRecord() == null) log.warn("CSV file is empty");
+                return;
+            }
+
+            int committedRow = executionContext.getInt(ROW_KEY);
+            if (channel instanceof FileChannel fileChannel) {
+                offset = executionContext.getLong(OFFSET_KEY);
+                fileChannel.position(offset);
+                currentRow = committedRow;
+            } else {
+                // Header row, then every committed record
+                nextRecord();
+                while (currentRow < committedRow && nextRecord() != null) {
+                    currentRow++;
+                }
+            }
+            log.info("Resuming CSV import after row {}", currentRow);
+        } catch (IOException e) {
+            close();
+            throw new ItemStreamException("Failed to open CSV file", e);
         }
     }
 
     @Override
     public PatientImportDTO read() throws Exception {
-        String[] line = csvReader.readNext();
+        // The preview reads without opening the reader as a stream
+        if (channel == null) open(new ExecutionContext());
+
+        String[] line = nextRecord();
         if (line == null) {
             return null;
         }
 
         currentRow++;
-
         try {
             return PatientImportDTO.builder()
                     .rowNumber(currentRow)
@@ -65,6 +132,79 @@ public class CsvPatientReader implements ItemReader<PatientImportDTO> {
         }
     }
 
+    // Called before each chunk commits, once every record of the chunk has been read
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putLong(OFFSET_KEY, offset);
+        executionContext.putInt(ROW_KEY, currentRow);
+    }
+
+    // Closes the underlying file once the step or the preview is done with it
+    @Override
+    public void close() throws ItemStreamException {
+        try {
+            if (channel != null) {
+                channel.close();
+            } else if (inputStream != null) {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to close CSV file", e);
+        }
+    }
+
+    /**
+     * Reads lines until the parser no longer has a quoted field pending, and returns the record's
+     * fields. A line break never occurs inside a multi-byte UTF-8 sequence, so lines can be cut on
+     * the raw bytes.
+     */
+    private String[] nextRecord() throws IOException {
+        String[] fields = null;
+        do {
+            String line = nextLine();
+            if (line == null) {
+                // Hands back an unterminated quoted field as the record's last one
+                return append(fields, parser.parseLineMulti(null));
+            }
+            fields = append(fields, parser.parseLineMulti(line));
+        } while (parser.isPending());
+        return fields;
+    }
+
+    private String nextLine() throws IOException {
+        int length = 0;
+
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int n = channel.read(buffer);
+                buffer.flip();
+                if (n < 0) {
+                    if (length == 0) return null;
+                    break;
+                }
+                continue;
+            }
+
+            byte b = buffer.get();
+            offset++;
+            if (b == '\n') break;
+
+            if (length == record.length) record = Arrays.copyOf(record, length * 2);
+            record[length++] = b;
+        }
+
+        if (length > 0 && record[length - 1] == '\r') length--;
+        return new String(record, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static String[] append(String[] fields, String[] more) {
+        if (fields == null || more == null) return fields == null ? more : fields;
+        String[] all = Arrays.copyOf(fields, fields.length + more.length);
+        System.arraycopy(more, 0, all, fields.length, more.length);
+        return all;
+    }
+
     private String getValueOrNull(String[] line, int index) {
         if (index >= line.length) {
             return null;
@@ -1,59 +1,201 @@
 package com.chibao.edu.readers;
 
 import com.chibao.edu.dtos.PatientImportDTO;
+import com.chibao.edu.parser.MappedSharedStrings;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.springframework.batch.item.ItemReader;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.time.ZoneId;
-import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+/**
+ * Streaming reader for the first sheet of an .xlsx upload.
+ * <p>
+ * The job's saved upload is opened in place as a read-only OPC package, so zip entries are
+ * read from disk on demand and the file is never copied. A background thread runs the SAX sheet parser and hands mapped
+ * rows over through a small bounded queue; when the step falls behind, the parser blocks.
+ * Heap use therefore stays flat however many rows the sheet has. A shared strings part larger
+ * than {@code maxInMemorySharedStrings} is kept on disk too, through {@link MappedSharedStrings}.
+ */
 @Slf4j
-public class ExcelPatientReader implements ItemReader<PatientImportDTO> {
+public class ExcelPatientReader implements ItemStreamReader<PatientImportDTO> {
 
-    private final Iterator<Row> rowIterator;
+    private static final int QUEUE_CAPACITY = 256;
+    private static final PatientImportDTO END_OF_SHEET = new PatientImportDTO();
 
-    public ExcelPatientReader(InputStream inputStream) throws IOException {
-        Workbook workbook = new XSSFWorkbook(inputStream);
-        Sheet sheet = workbook.getSheetAt(0);
-        this.rowIterator = sheet.iterator();
+    private final Path file;
+    private final long maxInMemorySharedStrings;
+    private final BlockingQueue<PatientImportDTO> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile Throwable failure;
 
-        // Skip header row
-        if (rowIterator.hasNext()) {
-            rowIterator.next();
+    private OPCPackage pkg;
+    private SharedStrings sharedStrings;
+    private Thread producer;
+    private boolean exhausted;
+
+    public ExcelPatientReader(Path file, long maxInMemorySharedStrings) {
+        this.file = file;
+        this.maxInMemorySharedStrings = maxInMemorySharedStrings;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        if (pkg != null) return;
+
+        try {
+            pkg = OPCPackage.open(file.toFile(), PackageAccess.READ);
+
+            XSSFReader reader = new XSSFReader(pkg);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                exhausted = true;
+                return;
+            }
+
+            SharedStrings sharedStrings = loadSharedStrings();
+            this.sharedStrings = sharedStrings;
+            StylesTable styles = reader.getStylesTable();
+            InputStream sheet = sheets.next();
+
+            producer = new Thread(() -> produce(sheet, sharedStrings, styles), "xlsx-patient-reader");
+            producer.setDaemon(true);
+            producer.start();
+        } catch (IOException | OpenXML4JException | SAXException e) {
+            close();
+            throw new ItemStreamException("Failed to open Excel file", e);
         }
     }
 
     @Override
     public PatientImportDTO read() throws Exception {
-        if (!rowIterator.hasNext()) {
-            return null;
+        if (pkg == null && !exhausted) open(new ExecutionContext());
+        if (exhausted) return null;
+
+        PatientImportDTO dto = queue.take();
+        if (dto != END_OF_SHEET) return dto;
+
+        exhausted = true;
+        if (failure != null) throw new IllegalStateException("Failed to read Excel sheet", failure);
+        return null;
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (producer != null) {
+            producer.interrupt();
+            queue.clear();
+            try {
+                producer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            producer = null;
+        }
+        if (sharedStrings instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.warn("Failed to delete shared strings store", e);
+            }
         }
+        sharedStrings = null;
+        if (pkg != null) {
+            pkg.revert();
+            pkg = null;
+        }
+    }
+
+    private SharedStrings loadSharedStrings() throws IOException, SAXException, OpenXML4JException {
+        List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+        if (!parts.isEmpty() && parts.get(0).getSize() > maxInMemorySharedStrings) {
+            return MappedSharedStrings.load(parts.get(0));
+        }
+        return new ReadOnlySharedStringsTable(pkg);
+    }
 
-        Row row = (Row) rowIterator.next();
-        int currentRowNum = row.getRowNum() + 1;
+    private void produce(InputStream sheet, SharedStrings sharedStrings, StylesTable styles) {
+        boolean closed = false;
+        try (sheet) {
+            XMLReader xmlReader = XMLHelper.newXMLReader();
+            xmlReader.setContentHandler(new XlsxRowHandler(sharedStrings, styles, new RowCallback()));
+            xmlReader.parse(new InputSource(sheet));
+        } catch (ReaderClosedException e) {
+            closed = true;
+        } catch (Throwable e) {
+            // Errors as well, such as running out of memory on a huge row: read() rethrows it
+            failure = e;
+        } finally {
+            // Whatever ended the parse, a waiting read() must be woken up
+            if (!closed) endSheet();
+        }
+    }
 
+    private void endSheet() {
+        try {
+            queue.put(END_OF_SHEET);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class RowCallback implements XlsxRowHandler.RowCallback {
+        private boolean headerSkipped;
+
+        @Override
+        public void onRow(int rowNum, Map<Integer, XlsxRowHandler.Cell> cells) {
+            if (!headerSkipped) {
+                headerSkipped = true;
+                return;
+            }
+            try {
+                queue.put(mapRow(rowNum + 1, cells));
+            } catch (InterruptedException e) {
+                throw new ReaderClosedException();
+            }
+        }
+    }
+
+    private PatientImportDTO mapRow(int currentRowNum, Map<Integer, XlsxRowHandler.Cell> cells) {
         try {
             return PatientImportDTO.builder()
                     .rowNumber(currentRowNum)
-                    .patientId(getCellValueAsString(row, 0))
-                    .firstName(getCellValueAsString(row, 1))
-                    .lastName(getCellValueAsString(row, 2))
-                    .dateOfBirth(getCellValueAsDate(row, 3))
-                    .gender(getCellValueAsString(row, 4))
-                    .email(getCellValueAsString(row, 5))
-                    .phoneNumber(getCellValueAsString(row, 6))
-                    .address(getCellValueAsString(row, 7))
-                    .city(getCellValueAsString(row, 8))
-                    .state(getCellValueAsString(row, 9))
-                    .zipCode(getCellValueAsString(row, 10))
-                    .bloodType(getCellValueAsString(row, 11))
-                    .medicalHistory(getCellValueAsString(row, 12))
+                    .patientId(getCellValueAsString(cells, 0))
+                    .firstName(getCellValueAsString(cells, 1))
+                    .lastName(getCellValueAsString(cells, 2))
+                    .dateOfBirth(getCellValueAsDate(cells, 3, currentRowNum))
+                    .gender(getCellValueAsString(cells, 4))
+                    .email(getCellValueAsString(cells, 5))
+                    .phoneNumber(getCellValueAsString(cells, 6))
+                    .address(getCellValueAsString(cells, 7))
+                    .city(getCellValueAsString(cells, 8))
+                    .state(getCellValueAsString(cells, 9))
+                    .zipCode(getCellValueAsString(cells, 10))
+                    .bloodType(getCellValueAsString(cells, 11))
+                    .medicalHistory(getCellValueAsString(cells, 12))
                     .build();
         } catch (Exception e) {
             log.error("Error parsing row {}: {}", currentRowNum, e.getMessage());
@@ -65,38 +207,39 @@ public class ExcelPatientReader implements ItemReader<PatientImportDTO> {
         }
     }
 
-    private String getCellValueAsString(Row row, int cellIndex) {
-        Cell cell = row.getCell(cellIndex);
+    private String getCellValueAsString(Map<Integer, XlsxRowHandler.Cell> cells, int cellIndex) {
+        XlsxRowHandler.Cell cell = cells.get(cellIndex);
         if (cell == null) {
             return null;
         }
 
-        return switch (cell.getCellType()) {
-            case STRING -> cell.getStringCellValue().trim();
-            case NUMERIC -> String.valueOf((long) cell.getNumericCellValue());
-            case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
-            case FORMULA -> cell.getCellFormula();
+        return switch (cell.type()) {
+            case STRING -> cell.value().trim();
+            case NUMERIC -> String.valueOf((long) Double.parseDouble(cell.value()));
+            case BOOLEAN -> cell.value();
             default -> null;
         };
     }
 
-    private LocalDate getCellValueAsDate(Row row, int cellIndex) {
-        Cell cell = row.getCell(cellIndex);
+    private LocalDate getCellValueAsDate(Map<Integer, XlsxRowHandler.Cell> cells, int cellIndex, int rowNum) {
+        XlsxRowHandler.Cell cell = cells.get(cellIndex);
         if (cell == null) {
             return null;
         }
 
         try {
-            if (cell.getCellType() == CellType.NUMERIC && DateUtil.isCellDateFormatted(cell)) {
-                Date date = cell.getDateCellValue();
-                return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-            } else if (cell.getCellType() == CellType.STRING) {
-                String dateStr = cell.getStringCellValue();
-                return LocalDate.parse(dateStr);
+            if (cell.type() == CellType.NUMERIC && cell.date() != null) {
+                return cell.date();
+            } else if (cell.type() == CellType.STRING) {
+                return LocalDate.parse(cell.value());
             }
         } catch (Exception e) {
-            log.warn("Failed to parse date in row {}, cell {}", row.getRowNum(), cellIndex);
+            log.warn("Failed to parse date in row {}, cell {}", rowNum - 1, cellIndex);
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /** Unwinds the SAX parse once the reader has been closed underneath it. */
+    private static final class ReaderClosedException extends RuntimeException {
+    }
+}
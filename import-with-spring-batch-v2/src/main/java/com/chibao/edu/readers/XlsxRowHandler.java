@@ -0,0 +1,138 @@
+package com.chibao.edu.readers;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SAX handler over a worksheet part. Collects the cells of one {@code <row>} at a time and
+ * passes them to the callback when the row closes, so memory use does not grow with the sheet.
+ * Shared strings are resolved, and numeric cells with a date format also carry their date.
+ */
+public class XlsxRowHandler extends DefaultHandler {
+
+    public record Cell(CellType type, String value, LocalDate date) {
+    }
+
+    @FunctionalInterface
+    public interface RowCallback {
+        void onRow(int rowNum, Map<Integer, Cell> cells);
+    }
+
+    private final SharedStrings sharedStrings;
+    private final StylesTable styles;
+    private final RowCallback callback;
+
+    private final StringBuilder text = new StringBuilder();
+    private boolean capturing;
+
+    private int rowNum = -1;
+    private Map<Integer, Cell> cells;
+
+    private int column = -1;
+    private String cellType;
+    private String cellStyle;
+    private boolean hasValue;
+
+    public XlsxRowHandler(SharedStrings sharedStrings, StylesTable styles, RowCallback callback) {
+        this.sharedStrings = sharedStrings;
+        this.styles = styles;
+        this.callback = callback;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attrs) {
+        switch (localName) {
+            case "row" -> {
+                String r = attrs.getValue("r");
+                rowNum = r != null ? Integer.parseInt(r) - 1 : rowNum + 1;
+                cells = new HashMap<>();
+                column = -1;
+            }
+            case "c" -> {
+                String ref = attrs.getValue("r");
+                column = ref != null ? columnIndex(ref) : column + 1;
+                cellType = attrs.getValue("t");
+                cellStyle = attrs.getValue("s");
+                hasValue = false;
+                text.setLength(0);
+            }
+            case "v", "t" -> {
+                capturing = true;
+                hasValue = true;
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        switch (localName) {
+            case "v", "t" -> capturing = false;
+            case "c" -> cells.put(column, toCell(hasValue ? text.toString() : null));
+            case "row" -> callback.onRow(rowNum, cells);
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (capturing) text.append(ch, start, length);
+    }
+
+    private Cell toCell(String raw) {
+        if (raw == null) return new Cell(CellType.BLANK, null, null);
+
+        return switch (cellType == null ? "n" : cellType) {
+            case "s" -> new Cell(CellType.STRING,
+                    sharedStrings.getItemAt(Integer.parseInt(raw.trim())).getString(), null);
+            case "inlineStr", "str" -> new Cell(CellType.STRING, raw, null);
+            case "b" -> new Cell(CellType.BOOLEAN, String.valueOf("1".equals(raw)), null);
+            case "e" -> new Cell(CellType.ERROR, raw, null);
+            default -> new Cell(CellType.NUMERIC, raw, dateValue(raw));
+        };
+    }
+
+    private LocalDate dateValue(String raw) {
+        XSSFCellStyle style = null;
+        if (cellStyle != null) {
+            style = styles.getStyleAt(Integer.parseInt(cellStyle));
+        } else if (styles.getNumCellStyles() > 0) {
+            style = styles.getStyleAt(0);
+        }
+        if (style == null) return null;
+
+        int formatIndex = style.getDataFormat();
+        String formatString = style.getDataFormatString();
+        if (formatString == null) formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+        if (!DateUtil.isADateFormat(formatIndex, formatString)) return null;
+
+        try {
+            double d = Double.parseDouble(raw);
+            return DateUtil.isValidExcelDate(d) ? DateUtil.getLocalDateTime(d).toLocalDate() : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int columnIndex(String cellRef) {
+        int col = 0;
+        for (int i = 0; i < cellRef.length(); i++) {
+            char ch = cellRef.charAt(i);
+            if (ch < 'A' || ch > 'Z') break;
+            col = col * 26 + (ch - 'A' + 1);
+        }
+        return col - 1;
+    }
+}
@@ -1,5 +1,6 @@
 package com.chibao.edu.service;
 
+import com.chibao.edu.common.CompressedUploads;
 import com.chibao.edu.common.DuplicateHandlingStrategy;
 import com.chibao.edu.common.ImportStatus;
 import com.chibao.edu.config.BatchConfiguration;
@@ -17,12 +18,20 @@ import org.springframework.batch.core.*;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -38,7 +47,15 @@ public class ImportService {
     private final PatientValidationProcessor processor;
     private final JobRepository jobRepository;
 
+    @Value("${import.max-decompressed-size:" + CompressedUploads.DEFAULT_MAX_DECOMPRESSED_SIZE + "}")
+    private DataSize maxDecompressedSize = DataSize.parse(CompressedUploads.DEFAULT_MAX_DECOMPRESSED_SIZE);
+
+    // A larger shared strings part is kept on disk rather than on the heap, see MappedSharedStrings
+    @Value("${import.excel.max-in-memory-shared-strings:32MB}")
+    private DataSize maxInMemorySharedStrings = DataSize.ofMegabytes(32);
+
     private static final int MAX_ROWS = 1000;
+    private static final Path JOB_FILES_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "patient-import");
     private static final Set<String> ALLOWED_EXTENSIONS = Set.of("csv", "xlsx");
     private static final List<String> REQUIRED_HEADERS = List.of(
             "patientId", "firstName", "lastName", "dateOfBirth", "gender"
@@ -51,12 +68,18 @@ public class ImportService {
         validateFile(file);
 
         String jobId = UUID.randomUUID().toString();
-        String fileName = file.getOriginalFilename();
+        String fileName = Paths.get(Objects.requireNonNull(file.getOriginalFilename())).getFileName().toString();
+
+        // The upload is saved once, as the job's file; preview and the batch step both read it
+        // from there, so the import does not depend on the request's multipart data
+        Path jobFile = saveJobFile(file, jobId, fileName);
+        CompressedUploads.checkArchive(jobFile, fileName);
 
         // Save import job
         ImportJob importJob = ImportJob.builder()
                 .jobId(jobId)
                 .fileName(fileName)
+                .filePath(jobFile.toString())
                 .status(ImportStatus.VALIDATING)
                 .duplicateStrategy(strategy)
                 .build();
@@ -66,10 +89,8 @@ public class ImportService {
         List<ImportResponse.ValidationError> errors = new ArrayList<>();
         int rowCount = 0;
 
-        try (InputStream is = file.getInputStream()) {
-            assert fileName != null;
-            ItemReader<PatientImportDTO> reader = createReader(is, fileName);
-
+        ItemReader<PatientImportDTO> reader = createReader(jobFile, fileName);
+        try {
             PatientImportDTO dto;
             while ((dto = (PatientImportDTO) reader.read()) != null && rowCount < MAX_ROWS) {
                 rowCount++;
@@ -80,6 +101,10 @@ public class ImportService {
                             .build());
                 }
             }
+        } finally {
+            if (reader instanceof ItemStream stream) {
+                stream.close();
+            }
         }
 
         importJob.setTotalRecords(rowCount);
@@ -96,9 +121,12 @@ public class ImportService {
     }
 
     @Async
-    public void startImport(String jobId, MultipartFile file, DuplicateHandlingStrategy strategy) throws Throwable {
+    public void startImport(String jobId, DuplicateHandlingStrategy strategy) throws Throwable {
         ImportJob importJob = (ImportJob) importJobRepository.findByJobId(jobId)
                 .orElseThrow(() -> new RuntimeException("Import job not found"));
+        if (importJob.getStatus() == ImportStatus.COMPLETED) {
+            throw new IllegalStateException("Import job already completed");
+        }
 
         try {
             importJob.setStatus(ImportStatus.IN_PROGRESS);
@@ -108,17 +136,16 @@ public class ImportService {
             // Set duplicate strategy
             processor.setDuplicateStrategy(strategy);
 
-            // Create reader
-            InputStream inputStream = file.getInputStream();
-            ItemReader<PatientImportDTO> reader = createReader(inputStream, Objects.requireNonNull(file.getOriginalFilename()));
+            // Create reader over the job's saved file; the step closes it
+            ItemReader<PatientImportDTO> reader = createReader(Paths.get(importJob.getFilePath()), importJob.getFileName());
 
             // Create step with reader
             Step step = batchConfiguration.createPatientImportStep(reader);
 
-            // Create and run job
+            // Create and run job. The parameters identify the import alone, so starting a failed
+            // import again restarts its job instance and the reader resumes from its last commit
             JobParameters jobParameters = new JobParametersBuilder()
                     .addString("jobId", jobId)
-                    .addLong("timestamp", System.currentTimeMillis())
                     .toJobParameters();
 
             // Rebuild job with the step
@@ -175,24 +202,47 @@ public class ImportService {
             throw new IOException("File name is null");
         }
 
-        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+        // .csv.gz and .zip are checked by what they contain
+        String extension = CompressedUploads.contentExtension(fileName);
         if (!ALLOWED_EXTENSIONS.contains(extension)) {
             throw new IOException("Invalid file format. Only CSV and XLSX are supported.");
         }
+        if (CompressedUploads.isCompressed(fileName) && !"csv".equals(extension)) {
+            throw new IOException("Only CSV files can be uploaded compressed (.csv.gz or .zip)");
+        }
 
-        if (file.getSize() > 10 * 1024 * 1024) { // 10MB limit
+        if (file.getSize() > 10 * 1024 * 1024) { // 10MB limit, on the compressed size
             throw new IOException("File size exceeds 10MB limit");
         }
     }
 
-    private ItemReader<PatientImportDTO> createReader(InputStream inputStream, String fileName)
-            throws IOException {
-        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+    private Path saveJobFile(MultipartFile file, String jobId, String fileName) throws IOException {
+        Path dir = JOB_FILES_DIR.resolve(jobId);
+        Files.createDirectories(dir);
+        Path target = dir.resolve(fileName);
+        // Moves the multipart temp file when it is on disk already
+        file.transferTo(target);
+        return target;
+    }
 
-        if ("csv".equals(extension)) {
-            return new CsvPatientReader(inputStream);
+    private ItemReader<PatientImportDTO> createReader(Path file, String fileName)
+            throws IOException {
+        String extension = CompressedUploads.contentExtension(fileName);
+
+        if ("csv".equals(extension) && !CompressedUploads.isCompressed(fileName)) {
+            // Read from the file itself, so a restart can seek to the last commit
+            return new CsvPatientReader(file);
+        } else if ("csv".equals(extension)) {
+            // Decompressed on the fly; the guard stops a zip bomb
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                return new CsvPatientReader(CompressedUploads.open(Channels.newInputStream(channel), fileName, maxDecompressedSize.toBytes()));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
         } else if ("xlsx".equals(extension)) {
-            return new ExcelPatientReader(inputStream);
+            return new ExcelPatientReader(file, maxInMemorySharedStrings.toBytes());
         } else {
             throw new IOException("Unsupported file format: " + extension);
         }
@@ -201,15 +251,17 @@ public class ImportService {
     private void updateImportJobStatus(ImportJob importJob, JobExecution execution) {
         StepExecution stepExecution = execution.getStepExecutions().iterator().next();
 
-        importJob.setProcessedRecords((int) stepExecution.getReadCount());
-        importJob.setSuccessCount((int) stepExecution.getWriteCount());
-        importJob.setFailedCount((int) stepExecution.getReadSkipCount() +
-                (int) stepExecution.getProcessSkipCount() +
-                (int) stepExecution.getWriteSkipCount());
-        importJob.setSkippedCount((int) stepExecution.getFilterCount());
+        // A restarted step counts from zero again, so its counts are added to the earlier runs'
+        importJob.setProcessedRecords(add(importJob.getProcessedRecords(), stepExecution.getReadCount()));
+        importJob.setSuccessCount(add(importJob.getSuccessCount(), stepExecution.getWriteCount()));
+        importJob.setFailedCount(add(importJob.getFailedCount(), stepExecution.getReadSkipCount() +
+                stepExecution.getProcessSkipCount() +
+                stepExecution.getWriteSkipCount()));
+        importJob.setSkippedCount(add(importJob.getSkippedCount(), stepExecution.getFilterCount()));
 
         if (execution.getStatus() == BatchStatus.COMPLETED) {
             importJob.setStatus(ImportStatus.COMPLETED);
+            deleteJobFile(importJob);
         } else if (execution.getStatus() == BatchStatus.FAILED) {
             importJob.setStatus(ImportStatus.FAILED);
             importJob.setErrorMessage(execution.getAllFailureExceptions().toString());
@@ -218,4 +270,19 @@ public class ImportService {
         importJob.setCompletedAt(LocalDateTime.now());
         importJobRepository.save(importJob);
     }
+
+    private static int add(Integer previous, long count) {
+        return (previous != null ? previous : 0) + (int) count;
+    }
+
+    // A failed job keeps its file so it can be started again
+    private void deleteJobFile(ImportJob importJob) {
+        Path jobFile = Paths.get(importJob.getFilePath());
+        try {
+            Files.deleteIfExists(jobFile);
+            Files.deleteIfExists(jobFile.getParent());
+        } catch (IOException e) {
+            log.warn("Failed to delete import file {}", jobFile, e);
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package com.chibao.edu.readers;
+
+import com.chibao.edu.dtos.PatientImportDTO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvPatientReaderTest {
+
+    // CRLF line endings, a quoted field with a line break in it, and multi-byte UTF-8 before the
+    // restart point, so the saved offset has to count bytes rather than characters or lines
+    private static final String CSV = "patientId,firstName,lastName,dateOfBirth,gender,email\r\n"
+            + "P001,Émile,Zoë,1990-01-31,MALE,emile@example.com\r\n"
+            + "P002,\"Multi\r\nline\",Nguyễn,1985-06-15,FEMALE,multi@example.com\r\n"
+            + "P003,\"Doe, John\",Smith,,MALE,john@example.com\r\n"
+            + "P004,Đức,Trần,2001-12-01,MALE,duc@example.com\r\n"
+            + "P005,Anna,Lee,1970-01-01,FEMALE,anna@example.com";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void open_shouldResumeFileAtCommittedRow() throws Exception {
+        // Arrange
+        Path file = write();
+        ExecutionContext context = new ExecutionContext();
+        CsvPatientReader first = new CsvPatientReader(file);
+        first.open(context);
+        first.read();
+        first.read();
+        first.update(context);
+        first.close();
+
+        // Act
+        CsvPatientReader restarted = new CsvPatientReader(file);
+        restarted.open(context);
+        List<PatientImportDTO> rest = readAll(restarted);
+
+        // Assert
+        assertThat(rest).extracting(PatientImportDTO::getPatientId).containsExactly("P003", "P004", "P005");
+        assertThat(rest).extracting(PatientImportDTO::getRowNumber).containsExactly(4, 5, 6);
+        assertThat(rest.get(0).getFirstName()).isEqualTo("Doe, John");
+        assertThat(rest.get(1).getFirstName()).isEqualTo("Đức");
+        assertThat(rest.get(1).getLastName()).isEqualTo("Trần");
+    }
+
+    @Test
+    void open_shouldResumeStreamBySkippingCommittedRows() throws Exception {
+        // Arrange
+        Path file = write();
+        ExecutionContext context = new ExecutionContext();
+        CsvPatientReader first = new CsvPatientReader(Files.newInputStream(file));
+        first.open(context);
+        PatientImportDTO first1 = first.read();
+        PatientImportDTO first2 = first.read();
+        first.update(context);
+        first.close();
+
+        // Act
+        CsvPatientReader restarted = new CsvPatientReader(Files.newInputStream(file));
+        restarted.open(context);
+        List<PatientImportDTO> rest = readAll(restarted);
+
+        // Assert
+        assertThat(first1.getLastName()).isEqualTo("Zoë");
+        // Lines are cut without their CRLF and the parser joins them with \n
+        assertThat(first2.getFirstName()).isEqualTo("Multi\nline");
+        assertThat(rest).extracting(PatientImportDTO::getPatientId).containsExactly("P003", "P004", "P005");
+        assertThat(rest).extracting(PatientImportDTO::getRowNumber).containsExactly(4, 5, 6);
+    }
+
+    private Path write() throws IOException {
+        Path file = dir.resolve("patients.csv");
+        Files.write(file, CSV.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<PatientImportDTO> readAll(CsvPatientReader reader) throws Exception {
+        List<PatientImportDTO> rows = new ArrayList<>();
+        try {
+            PatientImportDTO row;
+            while ((row = reader.read()) != null) {
+                rows.add(row);
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+}
@@ -46,6 +46,7 @@ public class PatientImportJobConfig {
         return new StepBuilder("patientImportStep", jobRepository)
                 .<PatientImportDTO, Patient>chunk(chunkSize, transactionManager)
                 .reader(patientItemReader)
+                // Also registered as read and chunk listener, to prefetch each chunk's duplicates
                 .processor(patientImportProcessor)
                 .writer(patientItemWriter)
                 .listener(importStepExecutionListener)
@@ -46,6 +46,21 @@ public class PatientImportController {
         }
     }
 
+    @PostMapping("/import/{jobId}/restart")
+    public ResponseEntity<ImportJobResponse> restartImport(@PathVariable String jobId) {
+        try {
+            log.info("Restarting import job: {}", jobId);
+
+            ImportJobResponse response = importService.restartImport(jobId);
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+
+        } catch (Exception e) {
+            log.error("Error restarting import job", e);
+            throw new RuntimeException("Failed to restart import: " + e.getMessage());
+        }
+    }
+
     @GetMapping("/import/{jobId}/status")
     public ResponseEntity<ImportJobStatusResponse> getImportStatus(@PathVariable String jobId) {
         try {
@@ -5,10 +5,14 @@ import com.chibao.edu.entity.ImportJob;
 import com.chibao.edu.repository.ImportJobRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobExecutionListener;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 
 @Slf4j
@@ -22,10 +26,10 @@ public class ImportJobExecutionListener implements JobExecutionListener {
     public void beforeJob(JobExecution jobExecution) {
         log.info("Starting import job with execution ID: {}", jobExecution.getId());
 
-        ImportJob importJob = importJobRepository
-                .findByBatchJobExecutionId(jobExecution.getId())
-                .orElseThrow(() -> new RuntimeException("Import job not found"));
+        ImportJob importJob = findImportJob(jobExecution);
 
+        // A restart is a new execution, so the id is recorded on every run
+        importJob.setBatchJobExecutionId(jobExecution.getId());
         importJob.setStatus(ImportJobStatus.PROCESSING);
         importJobRepository.save(importJob);
     }
@@ -35,9 +39,7 @@ public class ImportJobExecutionListener implements JobExecutionListener {
         log.info("Completed import job with execution ID: {} - Status: {}",
                 jobExecution.getId(), jobExecution.getStatus());
 
-        ImportJob importJob = importJobRepository
-                .findByBatchJobExecutionId(jobExecution.getId())
-                .orElseThrow(() -> new RuntimeException("Import job not found"));
+        ImportJob importJob = findImportJob(jobExecution);
 
         importJob.setEndTime(LocalDateTime.now());
 
@@ -54,5 +56,25 @@ public class ImportJobExecutionListener implements JobExecutionListener {
         }
 
         importJobRepository.save(importJob);
+        deleteRowSpill(jobExecution);
+    }
+
+    // Only after a completed run: a failed or stopped job is restarted from the same spill
+    private void deleteRowSpill(JobExecution jobExecution) {
+        String rowsFile = jobExecution.getJobParameters().getString("rowsFile");
+        if (jobExecution.getStatus() != BatchStatus.COMPLETED || rowsFile == null) return;
+
+        try {
+            Files.deleteIfExists(Path.of(rowsFile));
+        } catch (IOException e) {
+            log.warn("Failed to delete row spill {}", rowsFile, e);
+        }
+    }
+
+    // By the jobId parameter: the execution id is only known once the execution has started
+    private ImportJob findImportJob(JobExecution jobExecution) {
+        String jobId = jobExecution.getJobParameters().getString("jobId");
+        return importJobRepository.findById(jobId)
+                .orElseThrow(() -> new RuntimeException("Import job not found: " + jobId));
     }
 }
@@ -29,15 +29,17 @@ public class ImportStepExecutionListener implements StepExecutionListener {
                 stepExecution.getWriteCount(),
                 stepExecution.getSkipCount());
 
-        Long jobExecutionId = stepExecution.getJobExecutionId();
+        String jobId = stepExecution.getJobExecution().getJobParameters().getString("jobId");
 
         ImportJob importJob = importJobRepository
-                .findByBatchJobExecutionId(jobExecutionId)
-                .orElseThrow(() -> new RuntimeException("Import job not found"));
-
-        importJob.setSuccessCount((int) stepExecution.getWriteCount());
-        importJob.setSkippedCount((int) stepExecution.getSkipCount());
-        importJob.setFailedCount((int) (stepExecution.getReadCount() - stepExecution.getWriteCount() - stepExecution.getSkipCount()));
+                .findById(jobId)
+                .orElseThrow(() -> new RuntimeException("Import job not found: " + jobId));
+
+        // A restarted step counts from zero again, over the rows after the last commit only
+        importJob.setSuccessCount(importJob.getSuccessCount() + (int) stepExecution.getWriteCount());
+        importJob.setSkippedCount(importJob.getSkippedCount() + (int) stepExecution.getSkipCount());
+        importJob.setFailedCount(importJob.getFailedCount()
+                + (int) (stepExecution.getReadCount() - stepExecution.getWriteCount() - stepExecution.getSkipCount()));
 
         importJobRepository.save(importJob);
 
@@ -2,8 +2,15 @@ package com.chibao.edu.parser;
 
 import java.io.InputStream;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface FileParser<T> {
     List<T> parse(InputStream inputStream, Class<T> type);
+
+    /** Hands each row to {@code rows} as it is parsed; parsers that can stream avoid building the list. */
+    default void parse(InputStream inputStream, Class<T> type, Consumer<? super T> rows) {
+        parse(inputStream, type).forEach(rows);
+    }
+
     boolean supports(String fileExtension);
 }
@@ -0,0 +1,207 @@
+package com.chibao.edu.parser.impl;
+
+import com.opencsv.bean.CsvBindByName;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Compiled replacement for OpenCSV's reflective bean binding.
+ * <p>
+ * The {@link CsvBindByName} fields of a type are resolved once: each setter becomes a
+ * {@link BiConsumer} through {@link LambdaMetafactory}, and the value converter is picked from
+ * the field type. {@link #bind(String[])} then lines the bindings up with a file's header, so
+ * binding a row is one array walk of direct setter calls.
+ * <p>
+ * Row rules follow {@code CsvToBean} with {@code withThrowExceptions(false)}: headers match
+ * case-insensitively, a row is dropped when its length differs from the header, a required
+ * field is blank, or a value cannot be converted. Types that use OpenCSV features this class
+ * does not implement get no plan, and the caller falls back to OpenCSV.
+ */
+@Slf4j
+final class CsvBindingPlan<T> {
+    private static final Set<Class<?>> SUPPORTED_TYPES = Set.of(String.class, LocalDate.class, Integer.class, Long.class);
+
+    private static final ClassValue<CsvBindingPlan<?>> PLANS = new ClassValue<>() {
+        @Override
+        protected CsvBindingPlan<?> computeValue(Class<?> type) {
+            return compile(type);
+        }
+    };
+
+    private final Supplier<T> factory;
+    private final Map<String, Binding> bindings;
+
+    private CsvBindingPlan(Supplier<T> factory, Map<String, Binding> bindings) {
+        this.factory = factory;
+        this.bindings = bindings;
+    }
+
+    /** @return the cached plan for {@code type}, or {@code null} when it has to go through OpenCSV */
+    @SuppressWarnings("unchecked")
+    static <T> CsvBindingPlan<T> of(Class<T> type) {
+        return (CsvBindingPlan<T>) PLANS.get(type);
+    }
+
+    /** Resolves the bindings against a header row; fails like OpenCSV when a required column is missing. */
+    RowBinder<T> bind(String[] header) {
+        Binding[] columns = new Binding[header.length];
+        for (int i = 0; i < header.length; i++) {
+            Binding binding = bindings.get(header[i].trim().toUpperCase(Locale.ROOT));
+            if (binding != null) columns[i] = binding;
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Binding> entry : bindings.entrySet()) {
+            if (entry.getValue().required() && !contains(columns, entry.getValue())) missing.add(entry.getKey());
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("Header is missing required fields " + missing.stream().sorted().toList());
+        }
+        return new RowBinder<>(factory, columns);
+    }
+
+    private static boolean contains(Binding[] columns, Binding binding) {
+        for (Binding column : columns) {
+            if (column == binding) return true;
+        }
+        return false;
+    }
+
+    private static CsvBindingPlan<?> compile(Class<?> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Map<String, Binding> bindings = new HashMap<>();
+
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    if (hasOtherCsvBinding(field)) return null;
+
+                    CsvBindByName annotation = field.getAnnotation(CsvBindByName.class);
+                    if (annotation == null) continue;
+                    if (!SUPPORTED_TYPES.contains(field.getType())) return null;
+                    if (!annotation.capture().isEmpty() || !annotation.format().isEmpty() || !annotation.locale().isEmpty()) return null;
+
+                    String column = annotation.column().isEmpty() ? field.getName() : annotation.column();
+                    bindings.putIfAbsent(column.toUpperCase(Locale.ROOT), new Binding(
+                            field.getName(), annotation.required(), converter(field.getType()), setter(lookup, type, field)));
+                }
+            }
+            return new CsvBindingPlan<>(constructor(lookup, type), bindings);
+        } catch (Throwable e) {
+            log.debug("No compiled CSV binding for {}, using OpenCSV: {}", type.getName(), e.toString());
+            return null;
+        }
+    }
+
+    private static boolean hasOtherCsvBinding(Field field) {
+        for (var annotation : field.getDeclaredAnnotations()) {
+            Class<?> annotationType = annotation.annotationType();
+            if (annotationType.getPackageName().equals("com.opencsv.bean") && annotationType != CsvBindByName.class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Function<String, Object> converter(Class<?> fieldType) {
+        if (fieldType == LocalDate.class) return LocalDate::parse;
+        if (fieldType == Integer.class) return s -> Integer.valueOf(s.trim());
+        if (fieldType == Long.class) return s -> Long.valueOf(s.trim());
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> setter(MethodHandles.Lookup lookup, Class<?> type, Field field) throws Throwable {
+        String name = "set" + Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        MethodHandle setter = lookup.findVirtual(type, name, MethodType.methodType(void.class, field.getType()));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+                MethodType.methodType(BiConsumer.class),
+                MethodType.methodType(void.class, Object.class, Object.class),
+                setter,
+                MethodType.methodType(void.class, type, field.getType()));
+        return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> constructor(MethodHandles.Lookup lookup, Class<?> type) throws Throwable {
+        MethodHandle constructor = lookup.findConstructor(type, MethodType.methodType(void.class));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                MethodType.methodType(Supplier.class),
+                MethodType.methodType(Object.class),
+                constructor,
+                MethodType.methodType(type));
+        return (Supplier<T>) site.getTarget().invokeExact();
+    }
+
+    /**
+     * @param converter {@code null} for String fields, which take the raw value, empty included
+     */
+    private record Binding(String field, boolean required, Function<String, Object> converter,
+                           BiConsumer<Object, Object> setter) {
+    }
+
+    /** Header-specific binder; one per file. */
+    static final class RowBinder<T> {
+        private final Supplier<T> factory;
+        private final Binding[] columns;
+
+        private RowBinder(Supplier<T> factory, Binding[] columns) {
+            this.factory = factory;
+            this.columns = columns;
+        }
+
+        /** @return the bound bean, or {@code null} when OpenCSV would have rejected the row */
+        T bind(String[] line, long lineNumber) {
+            if (line.length != columns.length) {
+                log.debug("Skipping CSV line {}: number of data fields does not match number of headers", lineNumber);
+                return null;
+            }
+
+            T bean = factory.get();
+            for (int i = 0; i < columns.length; i++) {
+                Binding binding = columns[i];
+                if (binding == null) continue;
+
+                String value = line[i];
+                if (value.isBlank()) {
+                    if (binding.required()) {
+                        log.debug("Skipping CSV line {}: field '{}' is mandatory but no value was provided", lineNumber, binding.field());
+                        return null;
+                    }
+                    if (binding.converter() != null) continue;
+                }
+
+                if (binding.converter() == null) {
+                    binding.setter().accept(bean, value);
+                    continue;
+                }
+                try {
+                    binding.setter().accept(bean, binding.converter().apply(value));
+                } catch (DateTimeParseException | NumberFormatException e) {
+                    log.debug("Skipping CSV line {}: conversion of {} failed for field '{}'", lineNumber, value, binding.field());
+                    return null;
+                }
+            }
+            return bean;
+        }
+    }
+}
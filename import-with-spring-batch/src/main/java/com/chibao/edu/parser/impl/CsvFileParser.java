@@ -1,34 +1,76 @@
 package com.chibao.edu.parser.impl;
 
 import com.chibao.edu.parser.FileParser;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
 import com.opencsv.bean.CsvToBeanBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Slf4j
 @Component
 public class CsvFileParser<T> implements FileParser<T> {
 
+    // Set to false to bind every type through OpenCSV's CsvToBean
+    @Value("${import.csv.compiled-binder:true}")
+    private boolean compiledBinder = true;
+
     @Override
     public List<T> parse(InputStream inputStream, Class<T> type) {
+        List<T> results = new ArrayList<>();
+        parse(inputStream, type, results::add);
+        return results;
+    }
+
+    @Override
+    public void parse(InputStream inputStream, Class<T> type, Consumer<? super T> rows) {
+        CsvBindingPlan<T> plan = compiledBinder ? CsvBindingPlan.of(type) : null;
         try {
-            return new CsvToBeanBuilder<T>(new InputStreamReader(inputStream, StandardCharsets.UTF_8))
-                    .withType(type)
-                    .withIgnoreLeadingWhiteSpace(true)
-                    .withThrowExceptions(false)
-                    .build()
-                    .parse();
+            if (plan != null) {
+                parseCompiled(inputStream, plan, rows);
+            } else {
+                parseWithOpenCsv(inputStream, type, rows);
+            }
         } catch (Exception e) {
             log.error("Error parsing CSV file", e);
             throw new RuntimeException("Failed to parse CSV file: " + e.getMessage(), e);
         }
     }
 
+    private void parseCompiled(InputStream inputStream, CsvBindingPlan<T> plan, Consumer<? super T> rows) throws Exception {
+        try (CSVReader reader = new CSVReaderBuilder(new InputStreamReader(inputStream, StandardCharsets.UTF_8))
+                .withCSVParser(new CSVParserBuilder().withIgnoreLeadingWhiteSpace(true).build())
+                .build()) {
+
+            String[] header = reader.readNext();
+            CsvBindingPlan.RowBinder<T> binder = plan.bind(header != null ? header : new String[0]);
+
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                T bean = binder.bind(line, reader.getLinesRead());
+                if (bean != null) rows.accept(bean);
+            }
+        }
+    }
+
+    private void parseWithOpenCsv(InputStream inputStream, Class<T> type, Consumer<? super T> rows) {
+        new CsvToBeanBuilder<T>(new InputStreamReader(inputStream, StandardCharsets.UTF_8))
+                .withType(type)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build()
+                .forEach(rows);
+    }
+
     @Override
     public boolean supports(String fileExtension) {
         return "csv".equalsIgnoreCase(fileExtension);
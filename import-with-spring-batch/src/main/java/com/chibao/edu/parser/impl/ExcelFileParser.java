@@ -2,10 +2,15 @@ package com.chibao.edu.parser.impl;
 
 import com.chibao.edu.dto.PatientImportDTO;
 import com.chibao.edu.parser.FileParser;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.openxml4j.opc.ZipPackage;
+import org.apache.poi.openxml4j.util.ZipInputStreamZipEntrySource;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 import java.io.InputStream;
 import java.time.LocalDate;
@@ -17,6 +22,21 @@ import java.util.List;
 @Component
 public class ExcelFileParser<T> implements FileParser<T> {
 
+    // Zip entries of an upload larger than this are unzipped to temp files rather than the heap
+    @Value("${import.excel.temp-file-threshold:1MB}")
+    private DataSize tempFileThreshold = DataSize.ofMegabytes(1);
+
+    /**
+     * The workbook is opened from the upload stream, which makes POI unzip every part into a
+     * byte array before parsing. In temp-file mode those parts are spooled to disk instead. The
+     * setting is global to POI, so it is applied once here.
+     */
+    @PostConstruct
+    void useTempFilePackageParts() {
+        ZipInputStreamZipEntrySource.setThresholdBytesForTempFiles((int) Math.min(Integer.MAX_VALUE, tempFileThreshold.toBytes()));
+        ZipPackage.setUseTempFilePackageParts(true);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public List<T> parse(InputStream inputStream, Class<T> type) {
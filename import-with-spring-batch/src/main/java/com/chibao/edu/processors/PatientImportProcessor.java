@@ -6,35 +6,104 @@ import com.chibao.edu.entity.Patient;
 import com.chibao.edu.repository.PatientRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemReadListener;
 import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.batch.item.ItemProcessor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Maps imported rows to patients, applying the job's {@link DuplicateStrategy} to emails that are
+ * already taken.
+ * <p>
+ * A chunk reads all of its items before processing any, so the emails are collected as they are
+ * read and the patients owning them are fetched with one {@code IN} query when the first item is
+ * processed. The step registers this bean as its read and chunk listener because it is the
+ * processor. An item that was not seen by {@link #afterRead} is looked up on its own; that happens
+ * when a failed chunk is processed again item by item.
+ */
 @Slf4j
 @Component
 @StepScope
 @RequiredArgsConstructor
-public class PatientImportProcessor implements ItemProcessor<PatientImportDTO, Patient> {
+public class PatientImportProcessor implements ItemProcessor<PatientImportDTO, Patient>,
+        ItemReadListener<PatientImportDTO>, ChunkListener {
 
     private final PatientRepository patientRepository;
 
     @Value("#{jobParameters['duplicateStrategy']}")
-    private String duplicateStrategyStr;
+    private DuplicateStrategy duplicateStrategy;
+
+    // Emails read in the current chunk and not looked up yet
+    private final Set<String> pendingEmails = new HashSet<>();
+    // Patients of the current chunk by email; a null value means the email is free
+    private final Map<String, Patient> patientsByEmail = new HashMap<>();
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        clearChunk();
+    }
+
+    // A rolled back chunk may have left unsaved patients in the map
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        clearChunk();
+    }
+
+    @Override
+    public void afterRead(PatientImportDTO item) {
+        if (!patientsByEmail.containsKey(item.getEmail())) {
+            pendingEmails.add(item.getEmail());
+        }
+    }
 
     @Override
     public Patient process(PatientImportDTO item) throws Exception {
-        DuplicateStrategy strategy = DuplicateStrategy.valueOf(duplicateStrategyStr);
+        Patient existingPatient = findByEmail(item.getEmail());
+
+        if (existingPatient != null) {
+            return handleDuplicate(existingPatient, item, duplicateStrategy);
+        }
+
+        Patient patient = mapToEntity(item);
+        // A later item of the chunk with this email is a duplicate of it
+        patientsByEmail.put(item.getEmail(), patient);
+        return patient;
+    }
 
-        Optional<Patient> existingPatient = patientRepository.findByEmail(item.getEmail());
+    private Patient findByEmail(String email) {
+        if (!patientsByEmail.containsKey(email)) {
+            pendingEmails.add(email);
+            prefetchPending();
+        }
+        return patientsByEmail.get(email);
+    }
+
+    private void prefetchPending() {
+        List<String> emails = new ArrayList<>(pendingEmails);
+        pendingEmails.clear();
 
-        if (existingPatient.isPresent()) {
-            return handleDuplicate(existingPatient.get(), item, strategy);
+        for (String email : emails) {
+            patientsByEmail.putIfAbsent(email, null);
         }
+        for (Patient patient : patientRepository.findAllByEmailIn(emails)) {
+            patientsByEmail.put(patient.getEmail(), patient);
+        }
+        log.debug("Prefetched {} emails", emails.size());
+    }
 
-        return mapToEntity(item);
+    private void clearChunk() {
+        pendingEmails.clear();
+        patientsByEmail.clear();
     }
 
     private Patient handleDuplicate(Patient existing, PatientImportDTO dto, DuplicateStrategy strategy) {
@@ -72,4 +141,4 @@ public class PatientImportProcessor implements ItemProcessor<PatientImportDTO, P
         existing.setAddress(dto.getAddress());
         existing.setBloodType(dto.getBloodType());
     }
-}
\ No newline at end of file
+}
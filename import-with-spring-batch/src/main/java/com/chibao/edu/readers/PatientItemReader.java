@@ -1,59 +1,106 @@
 package com.chibao.edu.readers;
 
 import com.chibao.edu.dto.PatientImportDTO;
+import com.chibao.edu.utils.RowSpill;
 import com.chibao.edu.utils.ValidationResult;
 import com.chibao.edu.utils.ValidationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.batch.core.configuration.annotation.StepScope;
-import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Path;
 
+/**
+ * Streams the rows the import service spilled to {@code rowsFile}, validating each one as it is
+ * read; rows that fail validation are skipped.
+ * <p>
+ * The position in the spill is saved to the step's execution context whenever a chunk commits,
+ * so a restarted step seeks straight to the first row of the chunk that did not commit.
+ */
 @Slf4j
 @Component
 @StepScope
 @RequiredArgsConstructor
-public class PatientItemReader implements ItemReader<PatientImportDTO> {
+public class PatientItemReader implements ItemStreamReader<PatientImportDTO> {
+
+    static final String POSITION_KEY = "patientItemReader.position";
+    static final String ROW_NUMBER_KEY = "patientItemReader.rowNumber";
+    static final String INVALID_ROWS_KEY = "patientItemReader.invalidRows";
 
     private final ValidationService validationService;
 
     @Value("#{jobParameters['filePath']}")
     private String filePath;
 
-    @Value("#{jobExecutionContext['parsedData']}")
-    private List<PatientImportDTO> parsedData;
+    @Value("#{jobParameters['rowsFile']}")
+    private String rowsFile;
 
-    private int currentIndex = 0;
-    private List<PatientImportDTO> validatedData;
+    private RowSpill.Reader rows;
+    private int rowNumber = 0;
+    private int invalidRows = 0;
 
     @Override
-    public PatientImportDTO read() {
-        if (validatedData == null) {
-            initializeValidatedData();
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        try {
+            rows = RowSpill.open(Path.of(rowsFile));
+            if (rows == null) {
+                throw new ItemStreamException("No parsed rows found for " + filePath);
+            }
+
+            if (executionContext.containsKey(POSITION_KEY)) {
+                rowNumber = executionContext.getInt(ROW_NUMBER_KEY);
+                invalidRows = executionContext.getInt(INVALID_ROWS_KEY, 0);
+                rows.seek(executionContext.getLong(POSITION_KEY), rowNumber);
+                log.info("Resuming after row {} of {}", rowNumber, rows.getRowCount());
+            }
+        } catch (IOException e) {
+            close();
+            throw new ItemStreamException("Failed to open parsed rows of " + filePath, e);
         }
+    }
+
+    @Override
+    public PatientImportDTO read() {
+        while (rows.hasNext()) {
+            PatientImportDTO dto = rows.next();
+            dto.setRowNumber(++rowNumber);
 
-        if (currentIndex < validatedData.size()) {
-            return validatedData.get(currentIndex++);
+            ValidationResult<PatientImportDTO> result = validationService.validate(dto, rowNumber);
+            if (result.isValid()) {
+                return dto;
+            }
+            invalidRows++;
         }
 
         return null; // Signals end of data
     }
 
-    private void initializeValidatedData() {
-        if (parsedData == null || parsedData.isEmpty()) {
-            log.warn("No parsed data found in job execution context");
-            validatedData = new ArrayList<>();
-            return;
-        }
+    // Called before each chunk commits, with everything read so far in that chunk
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (rows == null) return;
+
+        executionContext.putLong(POSITION_KEY, rows.position());
+        executionContext.putInt(ROW_NUMBER_KEY, rowNumber);
+        executionContext.putInt(INVALID_ROWS_KEY, invalidRows);
+    }
 
-        ValidationResult<PatientImportDTO> result = validationService.validateBatch(parsedData);
-        validatedData = result.getValidData() != null ? result.getValidData() : new ArrayList<>();
+    @Override
+    public void close() throws ItemStreamException {
+        if (rows == null) return;
 
-        log.info("Validated {} records out of {} parsed records",
-                validatedData.size(), parsedData.size());
+        log.info("Read {} records, {} failed validation", rowNumber, invalidRows);
+        try {
+            rows.close();
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to close parsed rows of " + filePath, e);
+        }
+        rows = null;
     }
 }
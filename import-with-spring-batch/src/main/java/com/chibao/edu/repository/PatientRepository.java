@@ -4,10 +4,13 @@ import com.chibao.edu.entity.Patient;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface PatientRepository extends JpaRepository<Patient, Long> {
     Optional<Patient> findByEmail(String email);
     boolean existsByEmail(String email);
+    List<Patient> findAllByEmailIn(Collection<String> emails);
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+package com.chibao.edu.service.impl;
+
+import com.chibao.edu.common.CompressedUploads;
+import com.chibao.edu.common.DuplicateStrategy;
+import com.chibao.edu.common.ImportJobStatus;
+import com.chibao.edu.dto.PatientImportDTO;
+import com.chibao.edu.entity.ImportJob;
+import com.chibao.edu.parser.FileParser;
+import com.chibao.edu.parser.FileParserFactory;
+import com.chibao.edu.repository.ImportJobRepository;
+import com.chibao.edu.utils.RowSpill;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+
+/**
+ * Runs import jobs on the batch executor. Kept apart from {@link ImportService} so its calls go
+ * through the Spring proxy and {@code @Async} applies; a call from inside the same bean would run
+ * on the request thread. The listeners find the ImportJob by the {@code jobId} job parameter and
+ * keep it up to date, so nothing here saves the entity after the job has run.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ImportJobRunner {
+
+    private final JobLauncher jobLauncher;
+    private final Job patientImportJob;
+    private final JobExplorer jobExplorer;
+    private final FileParserFactory fileParserFactory;
+    private final ImportJobRepository importJobRepository;
+
+    @Value("${import.max-decompressed-size:" + CompressedUploads.DEFAULT_MAX_DECOMPRESSED_SIZE + "}")
+    private DataSize maxDecompressedSize = DataSize.parse(CompressedUploads.DEFAULT_MAX_DECOMPRESSED_SIZE);
+
+    @Async("batchTaskExecutor")
+    public void processImportAsync(String jobId, String filePath, DuplicateStrategy duplicateStrategy) {
+        try {
+            log.info("Starting async import processing for job: {}", jobId);
+
+            // Parse file into a row spill next to it; the job only gets the spill's path, so the
+            // batch execution context stays the same size whatever the file holds
+            FileParser<PatientImportDTO> parser = fileParserFactory.getParser(CompressedUploads.contentExtension(filePath));
+            long totalRows;
+            try (InputStream in = CompressedUploads.open(
+                    Files.newInputStream(Paths.get(filePath)), filePath, maxDecompressedSize.toBytes());
+                 RowSpill.Writer spill = RowSpill.create(filePath)) {
+                parser.parse(in, PatientImportDTO.class, row -> spill(spill, row));
+                totalRows = spill.commit();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            // Update total rows
+            ImportJob importJob = importJobRepository.findById(jobId)
+                    .orElseThrow(() -> new RuntimeException("Import job not found"));
+            importJob.setTotalRows((int) Math.min(Integer.MAX_VALUE, totalRows));
+            importJobRepository.save(importJob);
+
+            // Prepare job parameters
+            JobParameters jobParameters = new JobParametersBuilder()
+                    .addString("jobId", jobId)
+                    .addString("filePath", filePath)
+                    .addString("rowsFile", RowSpill.pathFor(filePath).toString())
+                    .addString("duplicateStrategy", duplicateStrategy.name())
+                    .addLong("timestamp", System.currentTimeMillis())
+                    .toJobParameters();
+
+            JobExecution jobExecution = jobLauncher.run(patientImportJob, jobParameters);
+
+            log.info("Import job {} completed with status: {}", jobId, jobExecution.getStatus());
+
+        } catch (Exception e) {
+            log.error("Error processing import job: {}", jobId, e);
+            handleImportFailure(jobId, e);
+        }
+    }
+
+    /**
+     * Launches the batch job again with the failed execution's parameters, so Spring Batch
+     * restarts that job instance and the reader resumes at its last committed row.
+     */
+    @Async("batchTaskExecutor")
+    public void processRestartAsync(String jobId, Long failedExecutionId) {
+        try {
+            JobExecution failed = jobExplorer.getJobExecution(failedExecutionId);
+            if (failed == null) {
+                throw new IllegalStateException("Batch job execution not found: " + failedExecutionId);
+            }
+
+            JobExecution jobExecution = jobLauncher.run(patientImportJob, failed.getJobParameters());
+
+            log.info("Restarted import job {} completed with status: {}", jobId, jobExecution.getStatus());
+
+        } catch (Exception e) {
+            log.error("Error restarting import job: {}", jobId, e);
+            handleImportFailure(jobId, e);
+        }
+    }
+
+    private static void spill(RowSpill.Writer spill, PatientImportDTO row) {
+        try {
+            spill.add(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void handleImportFailure(String jobId, Exception e) {
+        try {
+            ImportJob importJob = importJobRepository.findById(jobId)
+                    .orElseThrow(() -> new RuntimeException("Import job not found"));
+
+            importJob.setStatus(ImportJobStatus.FAILED);
+            importJob.setErrorMessage(e.getMessage());
+            importJob.setEndTime(LocalDateTime.now());
+
+            importJobRepository.save(importJob);
+        } catch (Exception ex) {
+            log.error("Error handling import failure", ex);
+        }
+    }
+}
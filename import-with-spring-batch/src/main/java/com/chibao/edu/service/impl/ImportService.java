@@ -1,28 +1,17 @@
 package com.chibao.edu.service.impl;
 
-import com.chibao.edu.common.DuplicateStrategy;
 import com.chibao.edu.common.ImportJobStatus;
 import com.chibao.edu.dto.ImportJobRequest;
 import com.chibao.edu.dto.ImportJobResponse;
 import com.chibao.edu.dto.ImportJobStatusResponse;
-import com.chibao.edu.dto.PatientImportDTO;
 import com.chibao.edu.entity.ImportJob;
-import com.chibao.edu.parser.FileParser;
-import com.chibao.edu.parser.FileParserFactory;
 import com.chibao.edu.repository.ImportJobRepository;
 import com.chibao.edu.utils.FileValidator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.batch.core.JobExecution;
-import org.springframework.batch.core.JobParameters;
-import org.springframework.batch.core.JobParametersBuilder;
-import org.springframework.batch.core.explore.JobExplorer;
-import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.batch.core.Job;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -30,7 +19,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
-import java.util.List;
 import java.util.UUID;
 
 @Slf4j
@@ -38,55 +26,13 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class ImportService {
 
-    private final JobLauncher jobLauncher;
-    private final Job patientImportJob;
-    private final JobExplorer jobExplorer;
+    private final ImportJobRunner importJobRunner;
     private final FileValidator fileValidator;
-    private final FileParserFactory fileParserFactory;
     private final ImportJobRepository importJobRepository;
 
     @Value("${import.upload-dir:./uploads}")
     private String uploadDir;
 
-    @Async("batchTaskExecutor")
-    public void processImportAsync(String jobId, String filePath, DuplicateStrategy duplicateStrategy) {
-        try {
-            log.info("Starting async import processing for job: {}", jobId);
-
-            // Parse file
-            FileParser<PatientImportDTO> parser = fileParserFactory.getParser(getFileExtension(filePath));
-            List<PatientImportDTO> parsedData = parser.parse(Files.newInputStream(Paths.get(filePath)), PatientImportDTO.class);
-
-            // Update total rows
-            ImportJob importJob = importJobRepository.findById(jobId)
-                    .orElseThrow(() -> new RuntimeException("Import job not found"));
-            importJob.setTotalRows(parsedData.size());
-            importJobRepository.save(importJob);
-
-            // Prepare job parameters
-            JobParameters jobParameters = new JobParametersBuilder()
-                    .addString("jobId", jobId)
-                    .addString("filePath", filePath)
-                    .addString("duplicateStrategy", duplicateStrategy.name())
-                    .addLong("timestamp", System.currentTimeMillis())
-                    .toJobParameters();
-
-            // Create execution context with parsed data
-            JobExecution jobExecution = jobLauncher.run(patientImportJob, jobParameters);
-            jobExecution.getExecutionContext().put("parsedData", parsedData);
-
-            // Update import job with batch execution ID
-            importJob.setBatchJobExecutionId(jobExecution.getId());
-            importJobRepository.save(importJob);
-
-            log.info("Import job {} completed with status: {}", jobId, jobExecution.getStatus());
-
-        } catch (Exception e) {
-            log.error("Error processing import job: {}", jobId, e);
-            handleImportFailure(jobId, e);
-        }
-    }
-
     public ImportJobResponse initiateImport(MultipartFile file, ImportJobRequest request) {
         try {
             // Validate file
@@ -94,6 +40,12 @@ public class ImportService {
 
             // Save file
             String filePath = saveUploadedFile(file);
+            try {
+                fileValidator.validateArchive(Paths.get(filePath), file.getOriginalFilename());
+            } catch (IllegalArgumentException e) {
+                Files.deleteIfExists(Paths.get(filePath));
+                throw e;
+            }
 
             // Create import job record
             ImportJob importJob = ImportJob.builder()
@@ -109,7 +61,7 @@ public class ImportService {
             importJob = importJobRepository.save(importJob);
 
             // Start async processing
-            processImportAsync(importJob.getId(), filePath, request.duplicateStrategy());
+            importJobRunner.processImportAsync(importJob.getId(), filePath, request.duplicateStrategy());
 
             return ImportJobResponse.builder()
                     .jobId(importJob.getId())
@@ -119,12 +71,42 @@ public class ImportService {
                     .totalRows(importJob.getTotalRows())
                     .build();
 
+        } catch (IllegalArgumentException e) {
+            // A rejected upload, answered with a 400
+            throw e;
         } catch (Exception e) {
             log.error("Error initiating import", e);
             throw new RuntimeException("Failed to initiate import: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Runs a failed import again from where it stopped, on the batch executor; the spilled rows
+     * are reused, not parsed again. See {@link ImportJobRunner#processRestartAsync}.
+     */
+    public ImportJobResponse restartImport(String jobId) {
+        ImportJob importJob = importJobRepository.findById(jobId)
+                .orElseThrow(() -> new RuntimeException("Import job not found: " + jobId));
+        if (importJob.getStatus() != ImportJobStatus.FAILED || importJob.getBatchJobExecutionId() == null) {
+            throw new IllegalStateException("Only a failed import can be restarted: " + jobId);
+        }
+
+        importJob.setStatus(ImportJobStatus.PENDING);
+        importJob.setErrorMessage(null);
+        importJob.setEndTime(null);
+        importJob = importJobRepository.save(importJob);
+
+        importJobRunner.processRestartAsync(jobId, importJob.getBatchJobExecutionId());
+
+        return ImportJobResponse.builder()
+                .jobId(importJob.getId())
+                .status(importJob.getStatus())
+                .createdAt(importJob.getCreatedAt())
+                .fileName(importJob.getFileName())
+                .totalRows(importJob.getTotalRows())
+                .build();
+    }
+
     public ImportJobStatusResponse getJobStatus(String jobId) {
         ImportJob importJob = importJobRepository.findById(jobId)
                 .orElseThrow(() -> new RuntimeException("Import job not found: " + jobId));
@@ -158,21 +140,6 @@ public class ImportService {
         return filePath.toString();
     }
 
-    private void handleImportFailure(String jobId, Exception e) {
-        try {
-            ImportJob importJob = importJobRepository.findById(jobId)
-                    .orElseThrow(() -> new RuntimeException("Import job not found"));
-
-            importJob.setStatus(ImportJobStatus.FAILED);
-            importJob.setErrorMessage(e.getMessage());
-            importJob.setEndTime(LocalDateTime.now());
-
-            importJobRepository.save(importJob);
-        } catch (Exception ex) {
-            log.error("Error handling import failure", ex);
-        }
-    }
-
     private Double calculateProgress(ImportJob importJob) {
         if (importJob.getTotalRows() == null || importJob.getTotalRows() == 0) {
             return 0.0;
@@ -181,8 +148,4 @@ public class ImportService {
         int processed = importJob.getSuccessCount() + importJob.getFailedCount() + importJob.getSkippedCount();
         return (double) processed / importJob.getTotalRows() * 100;
     }
-
-    private String getFileExtension(String filePath) {
-        return filePath.substring(filePath.lastIndexOf(".") + 1);
-    }
 }
@@ -1,10 +1,13 @@
 package com.chibao.edu.utils;
 
+import com.chibao.edu.common.CompressedUploads;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 @Slf4j
@@ -27,20 +30,34 @@ public class FileValidator {
             throw new IllegalArgumentException("File name is invalid");
         }
 
-        String extension = getFileExtension(filename);
+        // .csv.gz and .zip are checked by what they contain
+        String extension = CompressedUploads.contentExtension(filename);
         if (!allowedExtensions.contains(extension.toLowerCase())) {
             throw new IllegalArgumentException(
                     String.format("File extension .%s is not supported. Allowed: %s",
                             extension, String.join(", ", allowedExtensions))
             );
         }
+        if (CompressedUploads.isCompressed(filename) && !"csv".equals(extension)) {
+            throw new IllegalArgumentException("Only CSV files can be uploaded compressed (.csv.gz or .zip)");
+        }
 
+        // The limit is on the upload itself; the decompressed size is guarded while parsing
         long fileSizeInMB = file.getSize() / (1024 * 1024);
         if (fileSizeInMB > 10) {
             throw new IllegalArgumentException("File size exceeds 10MB limit");
         }
     }
 
+    /** Checks what a saved {@code .zip} upload holds, which the multipart part alone does not tell. */
+    public void validateArchive(Path file, String filename) throws IOException {
+        try {
+            CompressedUploads.checkArchive(file, filename);
+        } catch (CompressedUploads.InvalidArchive e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
     public String getFileExtension(String filename) {
         if (filename == null || !filename.contains(".")) {
             return "";
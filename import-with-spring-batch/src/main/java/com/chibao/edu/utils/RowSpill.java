@@ -0,0 +1,301 @@
+package com.chibao.edu.utils;
+
+import com.chibao.edu.dto.PatientImportDTO;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Parsed rows of an upload, kept in a file next to it so the batch job carries only the file's
+ * path instead of the rows themselves.
+ * <p>
+ * Layout: the rows, then the row count and a magic number. The spill is written to a temp file
+ * and moved into place on {@link Writer#commit}, so a half-written one is never opened. Each
+ * field is length-prefixed with an unsigned varint and dates are stored as epoch days. Rows are
+ * self-contained, so a {@link Reader} can {@link Reader#seek} back to any row start it reported.
+ * <p>
+ * The spill outlives a failed execution, so a restart reads the same rows; the job listener
+ * deletes it once the job has completed.
+ * <p>
+ * This is not the spill of the csv ("ROW2") or excel ("ROW3") import: those hold validated
+ * {@code RowResult}s with their error messages and the column profile, dictionary-encoded and
+ * checked against the upload's size and mtime. The batch job validates in its processor, so this
+ * one holds the raw {@link PatientImportDTO}s, and needs row starts a restarted reader can seek to.
+ */
+public final class RowSpill {
+    private static final int MAGIC = 0x50524F57; // "PROW"
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private RowSpill() {
+    }
+
+    public static Path pathFor(String sourcePath) {
+        Path source = Path.of(sourcePath);
+        return source.resolveSibling(source.getFileName() + ".rows");
+    }
+
+    /** Starts a spill for {@code sourcePath}; nothing is visible until {@link Writer#commit}. */
+    public static Writer create(String sourcePath) throws IOException {
+        return new Writer(pathFor(sourcePath));
+    }
+
+    /** @return the spilled rows, or {@code null} when there is no complete spill at {@code spill} */
+    public static Reader open(Path spill) throws IOException {
+        if (!Files.exists(spill)) return null;
+
+        FileChannel channel = FileChannel.open(spill, StandardOpenOption.READ);
+        try {
+            Reader reader = Reader.open(channel);
+            if (reader == null) channel.close();
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static final class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final Output out;
+        private long rows;
+        private boolean committed;
+
+        private Writer(Path target) throws IOException {
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.out = new Output(Files.newOutputStream(temp));
+        }
+
+        public void add(PatientImportDTO row) throws IOException {
+            out.string(row.getFirstName());
+            out.string(row.getLastName());
+            // 0 is null, anything else is the zigzagged epoch day plus one
+            out.varint(row.getDateOfBirth() == null ? 0 : zigzag(row.getDateOfBirth().toEpochDay()) + 1);
+            out.string(row.getEmail());
+            out.string(row.getPhone());
+            out.string(row.getAddress());
+            out.string(row.getBloodType());
+            rows++;
+        }
+
+        /** Writes the footer and moves the spill into place. @return the number of rows */
+        public long commit() throws IOException {
+            out.fixedLong(rows);
+            out.fixedInt(MAGIC);
+            out.close();
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            return rows;
+        }
+
+        /** Drops an uncommitted spill. */
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static final class Reader implements Iterator<PatientImportDTO>, Closeable {
+        private final FileChannel channel;
+        private final long rows;
+        private final long end;
+        private Input in;
+        private long read;
+
+        private Reader(FileChannel channel, long rows, long end) throws IOException {
+            this.channel = channel;
+            this.rows = rows;
+            this.end = end;
+            this.in = new Input(channel, 0, end);
+        }
+
+        private static Reader open(FileChannel channel) throws IOException {
+            long size = channel.size();
+            if (size < FOOTER_SIZE) return null;
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            channel.read(footer, size - FOOTER_SIZE);
+            footer.flip();
+            long rows = footer.getLong();
+            if (footer.getInt() != MAGIC || rows < 0) return null;
+            return new Reader(channel, rows, size - FOOTER_SIZE);
+        }
+
+        public long getRowCount() {
+            return rows;
+        }
+
+        /** Rows returned so far, counting the ones passed over by {@link #seek}. */
+        public long getRowsRead() {
+            return read;
+        }
+
+        /** Offset of the next row, for a later {@link #seek}. */
+        public long position() {
+            return in.position();
+        }
+
+        /** Continues from a {@link #position()} taken after {@code rowsRead} rows. */
+        public void seek(long position, long rowsRead) throws IOException {
+            if (position < 0 || position > end || rowsRead < 0 || rowsRead > rows) {
+                throw new IOException("Invalid spill position " + position + " after " + rowsRead + " rows");
+            }
+            in = new Input(channel, position, end);
+            read = rowsRead;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read < rows;
+        }
+
+        @Override
+        public PatientImportDTO next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            try {
+                PatientImportDTO row = new PatientImportDTO();
+                row.setFirstName(in.string());
+                row.setLastName(in.string());
+                long dob = in.varint();
+                row.setDateOfBirth(dob == 0 ? null : LocalDate.ofEpochDay(unzigzag(dob - 1)));
+                row.setEmail(in.string());
+                row.setPhone(in.string());
+                row.setAddress(in.string());
+                row.setBloodType(in.string());
+                read++;
+                return row;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static final class Output implements Closeable {
+        private final OutputStream out;
+
+        Output(OutputStream out) {
+            this.out = new BufferedOutputStream(out, 64 * 1024);
+        }
+
+        void varint(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        /** 0 for null, otherwise the UTF-8 length plus one, then the bytes. */
+        void string(String value) throws IOException {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1L);
+            out.write(bytes);
+        }
+
+        void fixedLong(long v) throws IOException {
+            for (int shift = 56; shift >= 0; shift -= 8) out.write((int) (v >>> shift));
+        }
+
+        void fixedInt(int v) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) out.write(v >>> shift);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** Decodes a region of the spill through a sliding memory-mapped window. */
+    private static final class Input {
+        private final FileChannel channel;
+        private final long end;
+        private MappedByteBuffer buf;
+        private long windowStart;
+
+        Input(FileChannel channel, long start, long end) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            remap(start);
+        }
+
+        long position() {
+            return windowStart + buf.position();
+        }
+
+        long varint() throws IOException {
+            fill(10);
+            try {
+                long v = 0;
+                for (int shift = 0; shift < 64; shift += 7) {
+                    byte b = buf.get();
+                    v |= (long) (b & 0x7F) << shift;
+                    if (b >= 0) return v;
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Spill file is truncated", e);
+            }
+            throw new IOException("Spill file is corrupt: varint too long");
+        }
+
+        String string() throws IOException {
+            long length = varint();
+            if (length == 0) return null;
+            if (length - 1 > WINDOW_SIZE) throw new IOException("Spill file is corrupt: value of " + (length - 1) + " bytes");
+            int len = (int) (length - 1);
+            fill(len);
+            if (buf.remaining() < len) throw new IOException("Spill file is truncated");
+
+            byte[] bytes = new byte[len];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Slides the window so the next {@code n} bytes are mapped, as far as the region has them. */
+        private void fill(int n) throws IOException {
+            if (buf.remaining() < n && windowStart + buf.limit() < end) remap(windowStart + buf.position());
+        }
+
+        private void remap(long offset) throws IOException {
+            windowStart = offset;
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, end - offset));
+        }
+    }
+}
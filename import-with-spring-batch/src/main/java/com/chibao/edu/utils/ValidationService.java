@@ -1,5 +1,6 @@
 package com.chibao.edu.utils;
 
+import com.chibao.edu.common.CompiledValidator;
 import com.chibao.edu.dto.PatientImportDTO;
 import com.chibao.edu.entity.ImportError;
 import jakarta.validation.ConstraintViolation;
@@ -19,7 +20,39 @@ public class ValidationService {
 
     private final Validator validator;
 
+    @SuppressWarnings("unchecked")
     public <T> ValidationResult<T> validate(T dto, Integer rowNumber) {
+        CompiledValidator<T> plan = CompiledValidator.forType((Class<T>) dto.getClass());
+        return plan != null ? validateCompiled(plan, dto, rowNumber) : validateWithValidator(dto, rowNumber);
+    }
+
+    private <T> ValidationResult<T> validateCompiled(CompiledValidator<T> plan, T dto, Integer rowNumber) {
+        int check = plan.nextViolation(dto, 0);
+        if (check < 0) {
+            return ValidationResult.<T>builder()
+                    .valid(true)
+                    .data(dto)
+                    .build();
+        }
+
+        List<ImportError> errors = new ArrayList<>();
+        for (; check >= 0; check = plan.nextViolation(dto, check + 1)) {
+            Object invalidValue = plan.invalidValue(dto, check);
+            errors.add(ImportError.builder()
+                    .rowNumber(rowNumber)
+                    .field(plan.field(check))
+                    .message(plan.message(check))
+                    .value(invalidValue != null ? invalidValue.toString() : null)
+                    .build());
+        }
+
+        return ValidationResult.<T>builder()
+                .valid(false)
+                .errors(errors)
+                .build();
+    }
+
+    private <T> ValidationResult<T> validateWithValidator(T dto, Integer rowNumber) {
         Set<ConstraintViolation<T>> violations = validator.validate(dto);
 
         if (violations.isEmpty()) {
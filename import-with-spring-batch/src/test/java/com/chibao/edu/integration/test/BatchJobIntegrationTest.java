@@ -3,8 +3,10 @@ package com.chibao.edu.integration.test;
 import com.chibao.edu.common.DuplicateStrategy;
 import com.chibao.edu.dto.PatientImportDTO;
 import com.chibao.edu.repository.PatientRepository;
+import com.chibao.edu.utils.RowSpill;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParameters;
@@ -16,6 +18,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -35,6 +38,9 @@ class BatchJobIntegrationTest {
     @Autowired
     private PatientRepository patientRepository;
 
+    @TempDir
+    Path dir;
+
     @BeforeEach
     void setUp() {
         jobRepositoryTestUtils.removeJobExecutions();
@@ -48,17 +54,22 @@ class BatchJobIntegrationTest {
                 createTestPatient("John", "Doe", "john@example.com"),
                 createTestPatient("Jane", "Smith", "jane@example.com")
         );
+        String filePath = dir.resolve("test.csv").toString();
+        try (RowSpill.Writer spill = RowSpill.create(filePath)) {
+            for (PatientImportDTO row : testData) spill.add(row);
+            spill.commit();
+        }
 
         JobParameters jobParameters = new JobParametersBuilder()
                 .addString("jobId", "test-job")
-                .addString("filePath", "/tmp/test.csv")
+                .addString("filePath", filePath)
+                .addString("rowsFile", RowSpill.pathFor(filePath).toString())
                 .addString("duplicateStrategy", DuplicateStrategy.SKIP.name())
                 .addLong("timestamp", System.currentTimeMillis())
                 .toJobParameters();
 
         // Act
         JobExecution jobExecution = jobLauncherTestUtils.launchJob(jobParameters);
-        jobExecution.getExecutionContext().put("parsedData", testData);
 
         // Assert
         assertThat(jobExecution.getStatus()).isEqualTo(BatchStatus.COMPLETED);
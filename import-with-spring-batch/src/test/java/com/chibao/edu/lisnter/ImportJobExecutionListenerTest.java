@@ -0,0 +1,75 @@
+package com.chibao.edu.lisnter;
+
+import com.chibao.edu.common.ImportJobStatus;
+import com.chibao.edu.entity.ImportJob;
+import com.chibao.edu.repository.ImportJobRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ImportJobExecutionListenerTest {
+
+    @Mock
+    private ImportJobRepository importJobRepository;
+
+    @InjectMocks
+    private ImportJobExecutionListener listener;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void afterJob_shouldDeleteRowSpillWhenCompleted() throws IOException {
+        // Arrange
+        Path rowsFile = Files.createFile(dir.resolve("patients.csv.rows"));
+        JobExecution execution = execution(rowsFile, BatchStatus.COMPLETED);
+
+        // Act
+        listener.afterJob(execution);
+
+        // Assert
+        assertThat(rowsFile).doesNotExist();
+    }
+
+    @Test
+    void afterJob_shouldKeepRowSpillForRestartWhenFailed() throws IOException {
+        // Arrange
+        Path rowsFile = Files.createFile(dir.resolve("patients.csv.rows"));
+        JobExecution execution = execution(rowsFile, BatchStatus.FAILED);
+
+        // Act
+        listener.afterJob(execution);
+
+        // Assert
+        assertThat(rowsFile).exists();
+    }
+
+    private JobExecution execution(Path rowsFile, BatchStatus status) {
+        ImportJob importJob = new ImportJob();
+        importJob.setId("job-1");
+        importJob.setStatus(ImportJobStatus.PROCESSING);
+        when(importJobRepository.findById("job-1")).thenReturn(Optional.of(importJob));
+
+        JobExecution execution = new JobExecution(1L, new JobParametersBuilder()
+                .addString("jobId", "job-1")
+                .addString("rowsFile", rowsFile.toString())
+                .toJobParameters());
+        execution.setStatus(status);
+        return execution;
+    }
+}
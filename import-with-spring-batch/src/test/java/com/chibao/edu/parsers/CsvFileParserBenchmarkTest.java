@@ -0,0 +1,92 @@
+package com.chibao.edu.parsers;
+
+import com.chibao.edu.parser.impl.CsvFileParser;
+import com.opencsv.bean.CsvBindByName;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compiled binder vs OpenCSV CsvToBean on the same input.
+ * Run with {@code mvn test -Dtest=CsvFileParserBenchmarkTest -Dbenchmark=true}.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CsvFileParserBenchmarkTest {
+
+    private static final int ROWS = 50_000;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    @Data
+    public static class BenchmarkRow {
+        @CsvBindByName(column = "firstName", required = true)
+        private String firstName;
+        @CsvBindByName(column = "lastName", required = true)
+        private String lastName;
+        @CsvBindByName(column = "dateOfBirth", required = true)
+        private String dateOfBirth;
+        @CsvBindByName(column = "email", required = true)
+        private String email;
+        @CsvBindByName(column = "phone", required = true)
+        private String phone;
+        @CsvBindByName(column = "address")
+        private String address;
+        @CsvBindByName(column = "bloodType")
+        private String bloodType;
+        @CsvBindByName(column = "visits")
+        private Integer visits;
+    }
+
+    @Test
+    void compiledBinder_shouldOutperformCsvToBean() {
+        // Arrange
+        byte[] csv = generateCsv();
+        CsvFileParser<BenchmarkRow> compiled = new CsvFileParser<>();
+        CsvFileParser<BenchmarkRow> openCsv = new CsvFileParser<>();
+        ReflectionTestUtils.setField(openCsv, "compiledBinder", false);
+
+        // Act
+        double openCsvMillis = measure(openCsv, csv);
+        double compiledMillis = measure(compiled, csv);
+
+        // Assert
+        log.info("CsvToBean: {} ms/op, compiled: {} ms/op, speedup {}x ({} rows)",
+                String.format("%.1f", openCsvMillis), String.format("%.1f", compiledMillis),
+                String.format("%.1f", openCsvMillis / compiledMillis), ROWS);
+        assertThat(parse(compiled, csv)).isEqualTo(parse(openCsv, csv));
+        assertThat(compiledMillis).isLessThan(openCsvMillis);
+    }
+
+    private double measure(CsvFileParser<BenchmarkRow> parser, byte[] csv) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) parse(parser, csv);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) parse(parser, csv);
+        return (System.nanoTime() - start) / 1_000_000.0 / MEASURED_ITERATIONS;
+    }
+
+    private List<BenchmarkRow> parse(CsvFileParser<BenchmarkRow> parser, byte[] csv) {
+        List<BenchmarkRow> rows = parser.parse(new ByteArrayInputStream(csv), BenchmarkRow.class);
+        assertThat(rows).hasSize(ROWS);
+        return rows;
+    }
+
+    private byte[] generateCsv() {
+        StringBuilder sb = new StringBuilder("firstName,lastName,dateOfBirth,email,phone,address,bloodType,visits\n");
+        for (int i = 0; i < ROWS; i++) {
+            sb.append("First").append(i).append(",Last").append(i).append(",1990-01-01,")
+                    .append("user").append(i).append("@example.com,+1234567890,")
+                    .append("\"").append(i).append(" Main St, Springfield\",O+,").append(i % 12).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
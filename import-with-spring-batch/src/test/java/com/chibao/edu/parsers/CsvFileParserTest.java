@@ -7,9 +7,11 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.time.LocalDate;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class CsvFileParserTest {
 
@@ -41,6 +43,64 @@ class CsvFileParserTest {
         assertThat(result.get(1).getFirstName()).isEqualTo("Jane");
     }
 
+    @Test
+    void parse_shouldBindDateOfBirthAndMatchHeadersIgnoringCase() {
+        // Arrange
+        String csvContent = """
+            FIRSTNAME,lastname,DateOfBirth,email,phone
+            John,Doe,1990-01-01,john.doe@example.com,+1234567890
+            """;
+
+        InputStream inputStream = new ByteArrayInputStream(csvContent.getBytes());
+
+        // Act
+        List<PatientImportDTO> result = csvFileParser.parse(inputStream, PatientImportDTO.class);
+
+        // Assert
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).getLastName()).isEqualTo("Doe");
+        assertThat(result.get(0).getDateOfBirth()).isEqualTo(LocalDate.of(1990, 1, 1));
+        assertThat(result.get(0).getAddress()).isNull();
+    }
+
+    @Test
+    void parse_shouldSkipRowsOpenCsvWouldReject() {
+        // Arrange
+        String csvContent = """
+            firstName,lastName,dateOfBirth,email,phone,address,bloodType
+            John,,1990-01-01,john.doe@example.com,+1234567890,123 Main St,O+
+            Jane,Smith,15/05/1985,jane.smith@example.com,+0987654321,456 Oak Ave,A+
+            Jim,Brown,1970-03-03,jim.brown@example.com
+            Ann,Lee,1980-02-02,ann.lee@example.com,+1122334455,,
+            """;
+
+        InputStream inputStream = new ByteArrayInputStream(csvContent.getBytes());
+
+        // Act
+        List<PatientImportDTO> result = csvFileParser.parse(inputStream, PatientImportDTO.class);
+
+        // Assert
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).getFirstName()).isEqualTo("Ann");
+        assertThat(result.get(0).getAddress()).isEmpty();
+    }
+
+    @Test
+    void parse_shouldFailWhenRequiredHeaderIsMissing() {
+        // Arrange
+        String csvContent = """
+            firstName,dateOfBirth,email,phone
+            John,1990-01-01,john.doe@example.com,+1234567890
+            """;
+
+        InputStream inputStream = new ByteArrayInputStream(csvContent.getBytes());
+
+        // Act & Assert
+        assertThatThrownBy(() -> csvFileParser.parse(inputStream, PatientImportDTO.class))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("LASTNAME");
+    }
+
     @Test
     void supports_shouldReturnTrueForCsv() {
         // Act & Assert
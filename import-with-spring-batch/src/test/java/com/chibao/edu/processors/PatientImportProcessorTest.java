@@ -10,14 +10,17 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.LocalDate;
-import java.util.Optional;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -56,8 +59,8 @@ class PatientImportProcessorTest {
     @Test
     void processNewPatient_shouldCreateNewEntity() throws Exception {
         // Arrange
-        ReflectionTestUtils.setField(processor, "duplicateStrategyStr", DuplicateStrategy.SKIP.name());
-        when(patientRepository.findByEmail(anyString())).thenReturn(Optional.empty());
+        ReflectionTestUtils.setField(processor, "duplicateStrategy", DuplicateStrategy.SKIP);
+        when(patientRepository.findAllByEmailIn(anyCollection())).thenReturn(List.of());
 
         // Act
         Patient result = processor.process(sampleDto);
@@ -66,14 +69,14 @@ class PatientImportProcessorTest {
         assertThat(result).isNotNull();
         assertThat(result.getFirstName()).isEqualTo("John");
         assertThat(result.getEmail()).isEqualTo("john.doe@example.com");
-        verify(patientRepository).findByEmail("john.doe@example.com");
+        verify(patientRepository).findAllByEmailIn(List.of("john.doe@example.com"));
     }
 
     @Test
     void processWithSkipStrategy_shouldReturnNull() throws Exception {
         // Arrange
-        ReflectionTestUtils.setField(processor, "duplicateStrategyStr", DuplicateStrategy.SKIP.name());
-        when(patientRepository.findByEmail(anyString())).thenReturn(Optional.of(existingPatient));
+        ReflectionTestUtils.setField(processor, "duplicateStrategy", DuplicateStrategy.SKIP);
+        when(patientRepository.findAllByEmailIn(anyCollection())).thenReturn(List.of(existingPatient));
 
         // Act
         Patient result = processor.process(sampleDto);
@@ -85,8 +88,8 @@ class PatientImportProcessorTest {
     @Test
     void processWithUpdateStrategy_shouldUpdateExisting() throws Exception {
         // Arrange
-        ReflectionTestUtils.setField(processor, "duplicateStrategyStr", DuplicateStrategy.UPDATE.name());
-        when(patientRepository.findByEmail(anyString())).thenReturn(Optional.of(existingPatient));
+        ReflectionTestUtils.setField(processor, "duplicateStrategy", DuplicateStrategy.UPDATE);
+        when(patientRepository.findAllByEmailIn(anyCollection())).thenReturn(List.of(existingPatient));
 
         // Act
         Patient result = processor.process(sampleDto);
@@ -100,13 +103,54 @@ class PatientImportProcessorTest {
     @Test
     void processWithFailStrategy_shouldThrowException() {
         // Arrange
-        ReflectionTestUtils.setField(processor, "duplicateStrategyStr", DuplicateStrategy.FAIL.name());
-        when(patientRepository.findByEmail(anyString())).thenReturn(Optional.of(existingPatient));
+        ReflectionTestUtils.setField(processor, "duplicateStrategy", DuplicateStrategy.FAIL);
+        when(patientRepository.findAllByEmailIn(anyCollection())).thenReturn(List.of(existingPatient));
 
         // Act & Assert
         assertThatThrownBy(() -> processor.process(sampleDto))
                 .isInstanceOf(RuntimeException.class)
                 .hasMessageContaining("Duplicate email found");
     }
-}
 
+    @Test
+    void processChunk_shouldLookUpAllReadEmailsInOneQuery() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(processor, "duplicateStrategy", DuplicateStrategy.SKIP);
+        PatientImportDTO other = PatientImportDTO.builder()
+                .firstName("Mary")
+                .lastName("Major")
+                .email("mary@example.com")
+                .build();
+        when(patientRepository.findAllByEmailIn(anyCollection())).thenReturn(List.of(existingPatient));
+
+        // Act
+        processor.beforeChunk(mock(ChunkContext.class));
+        processor.afterRead(sampleDto);
+        processor.afterRead(other);
+        Patient duplicate = processor.process(sampleDto);
+        Patient created = processor.process(other);
+
+        // Assert
+        assertThat(duplicate).isNull();
+        assertThat(created.getEmail()).isEqualTo("mary@example.com");
+        verify(patientRepository, times(1)).findAllByEmailIn(anyCollection());
+    }
+
+    @Test
+    void processChunk_shouldTreatRepeatedEmailAsDuplicate() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(processor, "duplicateStrategy", DuplicateStrategy.SKIP);
+        when(patientRepository.findAllByEmailIn(anyCollection())).thenReturn(List.of());
+
+        // Act
+        processor.beforeChunk(mock(ChunkContext.class));
+        processor.afterRead(sampleDto);
+        processor.afterRead(sampleDto);
+        Patient first = processor.process(sampleDto);
+        Patient second = processor.process(sampleDto);
+
+        // Assert
+        assertThat(first).isNotNull();
+        assertThat(second).isNull();
+    }
+}
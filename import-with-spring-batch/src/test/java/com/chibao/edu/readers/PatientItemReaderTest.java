@@ -0,0 +1,103 @@
+package com.chibao.edu.readers;
+
+import com.chibao.edu.dto.PatientImportDTO;
+import com.chibao.edu.utils.RowSpill;
+import com.chibao.edu.utils.ValidationResult;
+import com.chibao.edu.utils.ValidationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PatientItemReaderTest {
+
+    @Mock
+    private ValidationService validationService;
+
+    @TempDir
+    Path dir;
+
+    private String filePath;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        filePath = dir.resolve("patients.csv").toString();
+        try (RowSpill.Writer spill = RowSpill.create(filePath)) {
+            for (int i = 1; i <= 5; i++) {
+                spill.add(PatientImportDTO.builder()
+                        .firstName("Patient" + i)
+                        .lastName("Doe")
+                        .dateOfBirth(LocalDate.of(1990, 1, i))
+                        .email("patient" + i + "@example.com")
+                        .phone("+1234567890")
+                        .build());
+            }
+            spill.commit();
+        }
+
+        when(validationService.validate(any(PatientImportDTO.class), anyInt()))
+                .thenReturn(ValidationResult.<PatientImportDTO>builder().valid(true).build());
+    }
+
+    @Test
+    void restart_shouldResumeAfterLastCommittedRow() {
+        // Arrange
+        ExecutionContext executionContext = new ExecutionContext();
+        PatientItemReader firstRun = newReader();
+        firstRun.open(executionContext);
+        firstRun.read();
+        firstRun.read();
+        firstRun.update(executionContext);
+        firstRun.read(); // read but never committed
+        firstRun.close();
+
+        // Act
+        PatientItemReader restarted = newReader();
+        restarted.open(executionContext);
+        PatientImportDTO next = restarted.read();
+
+        // Assert
+        assertThat(next.getFirstName()).isEqualTo("Patient3");
+        assertThat(next.getRowNumber()).isEqualTo(3);
+        assertThat(restarted.read().getFirstName()).isEqualTo("Patient4");
+        assertThat(restarted.read().getFirstName()).isEqualTo("Patient5");
+        assertThat(restarted.read()).isNull();
+        restarted.close();
+    }
+
+    @Test
+    void open_withoutCheckpoint_shouldStartAtFirstRow() {
+        // Arrange
+        PatientItemReader reader = newReader();
+
+        // Act
+        reader.open(new ExecutionContext());
+        PatientImportDTO first = reader.read();
+
+        // Assert
+        assertThat(first.getFirstName()).isEqualTo("Patient1");
+        assertThat(first.getRowNumber()).isEqualTo(1);
+        reader.close();
+    }
+
+    private PatientItemReader newReader() {
+        PatientItemReader reader = new PatientItemReader(validationService);
+        ReflectionTestUtils.setField(reader, "filePath", filePath);
+        ReflectionTestUtils.setField(reader, "rowsFile", RowSpill.pathFor(filePath).toString());
+        return reader;
+    }
+}
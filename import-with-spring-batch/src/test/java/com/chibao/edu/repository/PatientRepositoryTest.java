@@ -7,6 +7,7 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
 import java.time.LocalDate;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -69,4 +70,24 @@ class PatientRepositoryTest {
         // Assert
         assertThat(exists).isFalse();
     }
+
+    @Test
+    void findAllByEmailIn_shouldReturnOnlyExistingPatients() {
+        // Arrange
+        Patient patient = Patient.builder()
+                .firstName("John")
+                .lastName("Doe")
+                .dateOfBirth(LocalDate.of(1990, 1, 1))
+                .email("john@example.com")
+                .phone("+1234567890")
+                .build();
+
+        entityManager.persistAndFlush(patient);
+
+        // Act
+        List<Patient> found = patientRepository.findAllByEmailIn(List.of("john@example.com", "nonexistent@example.com"));
+
+        // Assert
+        assertThat(found).extracting(Patient::getEmail).containsExactly("john@example.com");
+    }
 }
\ No newline at end of file
@@ -6,8 +6,8 @@ import com.chibao.edu.dto.ImportJobRequest;
 import com.chibao.edu.dto.ImportJobResponse;
 import com.chibao.edu.dto.ImportJobStatusResponse;
 import com.chibao.edu.entity.ImportJob;
-import com.chibao.edu.parser.FileParserFactory;
 import com.chibao.edu.repository.ImportJobRepository;
+import com.chibao.edu.service.impl.ImportJobRunner;
 import com.chibao.edu.service.impl.ImportService;
 import com.chibao.edu.utils.FileValidator;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,9 +16,6 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.batch.core.Job;
-import org.springframework.batch.core.explore.JobExplorer;
-import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.multipart.MultipartFile;
@@ -35,20 +32,11 @@ import static org.mockito.Mockito.*;
 class ImportServiceTest {
 
     @Mock
-    private JobLauncher jobLauncher;
-
-    @Mock
-    private Job patientImportJob;
-
-    @Mock
-    private JobExplorer jobExplorer;
+    private ImportJobRunner importJobRunner;
 
     @Mock
     private FileValidator fileValidator;
 
-    @Mock
-    private FileParserFactory fileParserFactory;
-
     @Mock
     private ImportJobRepository importJobRepository;
 
@@ -85,4 +85,50 @@ class FileValidatorTest {
                 .isInstanceOf(IllegalArgumentException.class)
                 .hasMessageContaining("exceeds 10MB");
     }
+
+    @Test
+    void validateGzipCsvFile_shouldPass() {
+        // Arrange
+        MultipartFile file = new MockMultipartFile(
+                "file",
+                "patients.csv.gz",
+                "application/gzip",
+                new byte[]{0x1f, (byte) 0x8b, 0x08, 0x00}
+        );
+
+        // Act & Assert
+        assertThatCode(() -> fileValidator.validateFile(file))
+                .doesNotThrowAnyException();
+    }
+
+    @Test
+    void validateZipFile_shouldPass() {
+        // Arrange
+        MultipartFile file = new MockMultipartFile(
+                "file",
+                "patients.zip",
+                "application/zip",
+                new byte[]{0x50, 0x4b, 0x03, 0x04}
+        );
+
+        // Act & Assert
+        assertThatCode(() -> fileValidator.validateFile(file))
+                .doesNotThrowAnyException();
+    }
+
+    @Test
+    void validateCompressedExcelFile_shouldThrowException() {
+        // Arrange
+        MultipartFile file = new MockMultipartFile(
+                "file",
+                "patients.xlsx.gz",
+                "application/gzip",
+                new byte[]{0x1f, (byte) 0x8b, 0x08, 0x00}
+        );
+
+        // Act & Assert
+        assertThatThrownBy(() -> fileValidator.validateFile(file))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Only CSV files can be uploaded compressed");
+    }
 }
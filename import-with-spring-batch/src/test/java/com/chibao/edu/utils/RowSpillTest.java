@@ -0,0 +1,76 @@
+package com.chibao.edu.utils;
+
+import com.chibao.edu.dto.PatientImportDTO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RowSpillTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void commit_shouldReadBackEveryRow() throws IOException {
+        // Arrange
+        String source = dir.resolve("patients.csv").toString();
+        List<PatientImportDTO> rows = List.of(
+                patient("John", "john@example.com", LocalDate.of(1990, 1, 1), "123 Main St"),
+                patient("Jane", "jane@example.com", null, null)
+        );
+
+        // Act
+        long count;
+        try (RowSpill.Writer writer = RowSpill.create(source)) {
+            for (PatientImportDTO row : rows) writer.add(row);
+            count = writer.commit();
+        }
+
+        // Assert
+        assertThat(count).isEqualTo(2);
+        try (RowSpill.Reader reader = RowSpill.open(RowSpill.pathFor(source))) {
+            assertThat(reader).isNotNull();
+            assertThat(reader.getRowCount()).isEqualTo(2);
+            List<PatientImportDTO> read = new ArrayList<>();
+            reader.forEachRemaining(read::add);
+            assertThat(read).isEqualTo(rows);
+        }
+    }
+
+    @Test
+    void uncommittedSpill_shouldNotBeOpened() throws IOException {
+        // Arrange
+        String source = dir.resolve("patients.csv").toString();
+
+        // Act
+        try (RowSpill.Writer writer = RowSpill.create(source)) {
+            writer.add(patient("John", "john@example.com", LocalDate.of(1990, 1, 1), null));
+        }
+
+        // Assert
+        assertThat(RowSpill.open(RowSpill.pathFor(source))).isNull();
+        try (var files = Files.list(dir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private PatientImportDTO patient(String firstName, String email, LocalDate dateOfBirth, String address) {
+        return PatientImportDTO.builder()
+                .firstName(firstName)
+                .lastName("Doe")
+                .dateOfBirth(dateOfBirth)
+                .email(email)
+                .phone("+1234567890")
+                .address(address)
+                .bloodType("O+")
+                .build();
+    }
+}
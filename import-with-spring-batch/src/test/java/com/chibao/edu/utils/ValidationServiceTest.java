@@ -1,6 +1,7 @@
 package com.chibao.edu.utils;
 
 
+import com.chibao.edu.common.CompiledValidator;
 import com.chibao.edu.dto.PatientImportDTO;
 import jakarta.validation.Validation;
 import jakarta.validation.Validator;
@@ -9,6 +10,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDate;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -75,4 +78,24 @@ class ValidationServiceTest {
         assertThat(result.isValid()).isFalse();
     }
 
+    @Test
+    void validateMultipleViolations_shouldMatchValidator() {
+        // Arrange
+        PatientImportDTO dto = PatientImportDTO.builder().firstName(" ").lastName("x".repeat(101)).email("not-an-email").phone("123").bloodType("C+").build();
+        Set<String> expected = validator.validate(dto).stream()
+                .map(v -> v.getPropertyPath() + "|" + v.getMessage() + "|" + v.getInvalidValue())
+                .collect(Collectors.toSet());
+
+        // Act
+        ValidationResult<PatientImportDTO> result = validationService.validate(dto, 3);
+
+        // Assert
+        assertThat(CompiledValidator.forType(PatientImportDTO.class)).isNotNull();
+        assertThat(result.isValid()).isFalse();
+        assertThat(result.getErrors()).allSatisfy(error -> assertThat(error.getRowNumber()).isEqualTo(3));
+        assertThat(result.getErrors())
+                .extracting(error -> error.getField() + "|" + error.getMessage() + "|" + error.getValue())
+                .containsExactlyInAnyOrderElementsOf(expected);
+    }
+
 }
\ No newline at end of file